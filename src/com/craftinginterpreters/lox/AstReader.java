@@ -0,0 +1,283 @@
+package com.craftinginterpreters.lox;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import static com.craftinginterpreters.lox.AstWriter.*;
+
+// Rebuilds an AST written by AstWriter, recorded scope depths included, so the
+// resolver does not need to run again.
+class AstReader {
+    static class FormatError extends RuntimeException {
+        FormatError(String message) {
+            super(message);
+        }
+    }
+
+    private static final TokenType[] tokenTypes = TokenType.values();
+
+    private final ByteBuffer buffer;
+    // added to every token's line, for a tree that has moved in its source
+    private final int lineShift;
+    private String[] strings;
+
+    AstReader(ByteBuffer buffer) {
+        this(buffer, 0);
+    }
+
+    AstReader(ByteBuffer buffer, int lineShift) {
+        this.buffer = buffer;
+        this.lineShift = lineShift;
+    }
+
+    List<Stmt> read() {
+        try {
+            if (buffer.getInt() != MAGIC) throw new FormatError("Not a compiled Lox script.");
+            if (buffer.getInt() != FORMAT_VERSION) throw new FormatError("Compiled script format mismatch.");
+
+            strings = new String[buffer.getInt()];
+            for (int i = 0; i < strings.length; ++i) {
+                byte[] bytes = new byte[buffer.getInt()];
+                buffer.get(bytes);
+                strings[i] = new String(bytes, StandardCharsets.UTF_8);
+            }
+
+            List<Stmt> statements = readStmts();
+            if (buffer.hasRemaining()) throw new FormatError("Trailing data in compiled script.");
+            return statements;
+        } catch (RuntimeException error) {
+            if (error instanceof FormatError) throw error;
+            throw new FormatError("Corrupt compiled script.");
+        }
+    }
+
+    private List<Stmt> readStmts() {
+        int count = buffer.getInt();
+        List<Stmt> statements = new ArrayList<>(count);
+        for (int i = 0; i < count; ++i) {
+            statements.add(readStmt());
+        }
+        return statements;
+    }
+
+    private Stmt readStmt() {
+        byte tag = buffer.get();
+        switch (tag) {
+            case NULL:
+                return null;
+            case BLOCK:
+                return new Stmt.Block(readStmts());
+            case CLASS: {
+                Token name = readToken();
+                Expr.Variable superclass = (Expr.Variable)readExpr();
+                int count = buffer.getInt();
+                List<Stmt.Function> methods = new ArrayList<>(count);
+                for (int i = 0; i < count; ++i) {
+                    methods.add((Stmt.Function)readStmt());
+                }
+                return new Stmt.Class(name, superclass, methods);
+            }
+            case EXPRESSION:
+                return new Stmt.Expression(readExpr());
+            case IF: {
+                Expr condition = readExpr();
+                Stmt thenBranch = readStmt();
+                Stmt elseBranch = readStmt();
+                return new Stmt.If(condition, thenBranch, elseBranch);
+            }
+            case PRINT:
+                return new Stmt.Print(readExpr());
+            case VAR: {
+                Token name = readToken();
+                return new Stmt.Var(name, readExpr());
+            }
+            case WHILE: {
+                Expr condition = readExpr();
+                return new Stmt.While(condition, readStmt());
+            }
+            case FOR_IN: {
+                Token name = readToken();
+                Expr iterable = readExpr();
+                return new Stmt.ForIn(name, iterable, readStmt());
+            }
+            case FUNCTION: {
+                Token name = readToken();
+                int count = buffer.getInt();
+                List<Token> params = new ArrayList<>(count);
+                for (int i = 0; i < count; ++i) {
+                    params.add(readToken());
+                }
+                List<Stmt> body = readStmts();
+                boolean isStatic = buffer.get() != 0;
+                boolean isGetter = buffer.get() != 0;
+                boolean isGenerator = buffer.get() != 0;
+                return new Stmt.Function(name, params, body, isStatic, isGetter, isGenerator);
+            }
+            case RETURN: {
+                Token keyword = readToken();
+                return new Stmt.Return(keyword, readExpr());
+            }
+            case YIELD: {
+                Token keyword = readToken();
+                return new Stmt.Yield(keyword, readExpr());
+            }
+            case THROW: {
+                Token keyword = readToken();
+                return new Stmt.Throw(keyword, readExpr());
+            }
+            case TRY: {
+                Token keyword = readToken();
+                List<Stmt> body = readStmts();
+                Token name = readToken();
+                return new Stmt.Try(keyword, body, name, readStmts());
+            }
+            case MATCH: {
+                Token keyword = readToken();
+                Expr subject = readExpr();
+                int count = buffer.getInt();
+                List<Stmt.Case> cases = new ArrayList<>(count);
+                for (int i = 0; i < count; ++i) {
+                    cases.add((Stmt.Case)readStmt());
+                }
+                return new Stmt.Match(keyword, subject, cases, readStmt());
+            }
+            case CASE: {
+                Token keyword = readToken();
+                int count = buffer.getInt();
+                List<Expr> patterns = new ArrayList<>(count);
+                for (int i = 0; i < count; ++i) {
+                    patterns.add(readExpr());
+                }
+                return new Stmt.Case(keyword, patterns, readStmt());
+            }
+            case IMPORT: {
+                Token keyword = readToken();
+                Token path = readToken();
+                return new Stmt.Import(keyword, path, readToken());
+            }
+            default:
+                throw new FormatError("Unknown statement tag " + tag + ".");
+        }
+    }
+
+    private Expr readExpr() {
+        byte tag = buffer.get();
+        switch (tag) {
+            case NULL:
+                return null;
+            case ASSIGN: {
+                Token name = readToken();
+                Expr.Assign assign = new Expr.Assign(name, readExpr());
+                assign.depth = buffer.getInt();
+                return assign;
+            }
+            case BINARY: {
+                Expr left = readExpr();
+                Token operator = readToken();
+                return new Expr.Binary(left, operator, readExpr());
+            }
+            case CALL: {
+                Expr callee = readExpr();
+                Token paren = readToken();
+                int count = buffer.getInt();
+                List<Expr> arguments = new ArrayList<>(count);
+                for (int i = 0; i < count; ++i) {
+                    arguments.add(readExpr());
+                }
+                return new Expr.Call(callee, paren, arguments);
+            }
+            case GROUPING:
+                return new Expr.Grouping(readExpr());
+            case GET: {
+                Expr object = readExpr();
+                return new Expr.Get(object, readToken());
+            }
+            case SET: {
+                Expr object = readExpr();
+                Token name = readToken();
+                return new Expr.Set(object, name, readExpr());
+            }
+            case THIS: {
+                Expr.This expr = new Expr.This(readToken());
+                expr.depth = buffer.getInt();
+                return expr;
+            }
+            case SUPER: {
+                Token keyword = readToken();
+                Expr.Super expr = new Expr.Super(keyword, readToken());
+                expr.depth = buffer.getInt();
+                return expr;
+            }
+            case LITERAL:
+                return new Expr.Literal(readValue());
+            case LOGICAL: {
+                Expr left = readExpr();
+                Token operator = readToken();
+                return new Expr.Logical(left, operator, readExpr());
+            }
+            case UNARY: {
+                Token operator = readToken();
+                return new Expr.Unary(operator, readExpr());
+            }
+            case VARIABLE: {
+                Expr.Variable expr = new Expr.Variable(readToken());
+                expr.depth = buffer.getInt();
+                return expr;
+            }
+            case BREAK:
+                return new Expr.Break(readToken());
+            case SPAWN: {
+                Token keyword = readToken();
+                return new Expr.Spawn(keyword, (Expr.Call)readExpr());
+            }
+            case AWAIT: {
+                Token keyword = readToken();
+                return new Expr.Await(keyword, readExpr());
+            }
+            case ARRAY: {
+                Token bracket = readToken();
+                int count = buffer.getInt();
+                List<Expr> elements = new ArrayList<>(count);
+                for (int i = 0; i < count; ++i) {
+                    elements.add(readExpr());
+                }
+                return new Expr.ArrayLiteral(bracket, elements);
+            }
+            case INDEX: {
+                Expr object = readExpr();
+                Token bracket = readToken();
+                return new Expr.Index(object, bracket, readExpr());
+            }
+            case SET_INDEX: {
+                Expr object = readExpr();
+                Token bracket = readToken();
+                Expr index = readExpr();
+                return new Expr.SetIndex(object, bracket, index, readExpr());
+            }
+            default:
+                throw new FormatError("Unknown expression tag " + tag + ".");
+        }
+    }
+
+    private Object readValue() {
+        byte kind = buffer.get();
+        switch (kind) {
+            case NIL_VALUE: return null;
+            case TRUE_VALUE: return true;
+            case FALSE_VALUE: return false;
+            case NUMBER_VALUE: return Double.longBitsToDouble(buffer.getLong());
+            case STRING_VALUE: return strings[buffer.getInt()];
+            default:
+                throw new FormatError("Unknown literal kind " + kind + ".");
+        }
+    }
+
+    private Token readToken() {
+        TokenType type = tokenTypes[buffer.get()];
+        String lexeme = strings[buffer.getInt()];
+        int line = buffer.getInt() + lineShift;
+        return Token.restore(type, lexeme, line);
+    }
+}
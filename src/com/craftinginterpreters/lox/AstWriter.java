@@ -0,0 +1,476 @@
+package com.craftinginterpreters.lox;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// Serializes a resolved AST into the compact binary form read back by AstReader.
+// Every lexeme and string literal goes into a constant pool, so each node only
+// stores small integer indices.
+class AstWriter implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
+    static final int MAGIC = 0x4c4f5843; // "LOXC"
+    static final int FORMAT_VERSION = 8;
+
+    // Expression tags.
+    static final byte NULL = 0;
+    static final byte ASSIGN = 1;
+    static final byte BINARY = 2;
+    static final byte CALL = 3;
+    static final byte GROUPING = 4;
+    static final byte GET = 5;
+    static final byte SET = 6;
+    static final byte THIS = 7;
+    static final byte SUPER = 8;
+    static final byte LITERAL = 9;
+    static final byte LOGICAL = 10;
+    static final byte UNARY = 11;
+    static final byte VARIABLE = 12;
+    static final byte BREAK = 13;
+    static final byte SPAWN = 14;
+    static final byte AWAIT = 15;
+    static final byte ARRAY = 16;
+    static final byte INDEX = 17;
+    static final byte SET_INDEX = 18;
+
+    // Statement tags.
+    static final byte BLOCK = 1;
+    static final byte CLASS = 2;
+    static final byte EXPRESSION = 3;
+    static final byte IF = 4;
+    static final byte PRINT = 5;
+    static final byte VAR = 6;
+    static final byte WHILE = 7;
+    static final byte FUNCTION = 8;
+    static final byte RETURN = 9;
+    static final byte IMPORT = 10;
+    static final byte YIELD = 11;
+    static final byte FOR_IN = 12;
+    static final byte THROW = 13;
+    static final byte TRY = 14;
+    static final byte MATCH = 15;
+    static final byte CASE = 16;
+
+    // Literal kinds.
+    static final byte NIL_VALUE = 0;
+    static final byte TRUE_VALUE = 1;
+    static final byte FALSE_VALUE = 2;
+    static final byte NUMBER_VALUE = 3;
+    static final byte STRING_VALUE = 4;
+
+    private final Map<String, Integer> pool = new HashMap<>();
+    private final List<String> strings = new ArrayList<>();
+    private byte[] body = new byte[4096];
+    private int size = 0;
+
+    byte[] write(List<Stmt> statements) {
+        writeInt(statements.size());
+        for (Stmt statement : statements) {
+            writeStmt(statement);
+        }
+
+        byte[] nodes = Arrays.copyOf(body, size);
+        body = new byte[4096];
+        size = 0;
+
+        writeInt(MAGIC);
+        writeInt(FORMAT_VERSION);
+        writeInt(strings.size());
+        for (String string : strings) {
+            byte[] bytes = string.getBytes(StandardCharsets.UTF_8);
+            writeInt(bytes.length);
+            writeBytes(bytes);
+        }
+        writeBytes(nodes);
+
+        return Arrays.copyOf(body, size);
+    }
+
+    @Override
+    public Void visitBlockStmt(Stmt.Block stmt) {
+        writeByte(BLOCK);
+        writeStmts(stmt.statements);
+        return null;
+    }
+
+    @Override
+    public Void visitClassStmt(Stmt.Class stmt) {
+        writeByte(CLASS);
+        writeToken(stmt.name);
+        writeExpr(stmt.superclass);
+        writeInt(stmt.methods.size());
+        for (Stmt.Function method : stmt.methods) {
+            writeStmt(method);
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitExpressionStmt(Stmt.Expression stmt) {
+        writeByte(EXPRESSION);
+        writeExpr(stmt.expression);
+        return null;
+    }
+
+    @Override
+    public Void visitIfStmt(Stmt.If stmt) {
+        writeByte(IF);
+        writeExpr(stmt.condition);
+        writeStmt(stmt.thenBranch);
+        writeStmt(stmt.elseBranch);
+        return null;
+    }
+
+    @Override
+    public Void visitPrintStmt(Stmt.Print stmt) {
+        writeByte(PRINT);
+        writeExpr(stmt.expression);
+        return null;
+    }
+
+    @Override
+    public Void visitVarStmt(Stmt.Var stmt) {
+        writeByte(VAR);
+        writeToken(stmt.name);
+        writeExpr(stmt.initializer);
+        return null;
+    }
+
+    @Override
+    public Void visitWhileStmt(Stmt.While stmt) {
+        writeByte(WHILE);
+        writeExpr(stmt.condition);
+        writeStmt(stmt.body);
+        return null;
+    }
+
+    @Override
+    public Void visitForInStmt(Stmt.ForIn stmt) {
+        writeByte(FOR_IN);
+        writeToken(stmt.name);
+        writeExpr(stmt.iterable);
+        writeStmt(stmt.body);
+        return null;
+    }
+
+    @Override
+    public Void visitFunctionStmt(Stmt.Function stmt) {
+        writeByte(FUNCTION);
+        writeToken(stmt.name);
+        writeInt(stmt.params.size());
+        for (Token param : stmt.params) {
+            writeToken(param);
+        }
+        writeStmts(stmt.body);
+        writeByte(stmt.isStatic ? 1 : 0);
+        writeByte(stmt.isGetter ? 1 : 0);
+        writeByte(stmt.isGenerator ? 1 : 0);
+        return null;
+    }
+
+    @Override
+    public Void visitReturnStmt(Stmt.Return stmt) {
+        writeByte(RETURN);
+        writeToken(stmt.keyword);
+        writeExpr(stmt.value);
+        return null;
+    }
+
+    @Override
+    public Void visitYieldStmt(Stmt.Yield stmt) {
+        writeByte(YIELD);
+        writeToken(stmt.keyword);
+        writeExpr(stmt.value);
+        return null;
+    }
+
+    @Override
+    public Void visitThrowStmt(Stmt.Throw stmt) {
+        writeByte(THROW);
+        writeToken(stmt.keyword);
+        writeExpr(stmt.value);
+        return null;
+    }
+
+    @Override
+    public Void visitTryStmt(Stmt.Try stmt) {
+        writeByte(TRY);
+        writeToken(stmt.keyword);
+        writeStmts(stmt.body);
+        writeToken(stmt.name);
+        writeStmts(stmt.handler);
+        return null;
+    }
+
+    @Override
+    public Void visitMatchStmt(Stmt.Match stmt) {
+        writeByte(MATCH);
+        writeToken(stmt.keyword);
+        writeExpr(stmt.subject);
+        writeInt(stmt.cases.size());
+        for (Stmt.Case arm : stmt.cases) {
+            writeStmt(arm);
+        }
+        writeStmt(stmt.otherwise);
+        return null;
+    }
+
+    @Override
+    public Void visitCaseStmt(Stmt.Case stmt) {
+        writeByte(CASE);
+        writeToken(stmt.keyword);
+        writeInt(stmt.patterns.size());
+        for (Expr pattern : stmt.patterns) {
+            writeExpr(pattern);
+        }
+        writeStmt(stmt.body);
+        return null;
+    }
+
+    @Override
+    public Void visitImportStmt(Stmt.Import stmt) {
+        writeByte(IMPORT);
+        writeToken(stmt.keyword);
+        writeToken(stmt.path);
+        writeToken(stmt.name);
+        return null;
+    }
+
+    @Override
+    public Void visitAssignExpr(Expr.Assign expr) {
+        writeByte(ASSIGN);
+        writeToken(expr.name);
+        writeExpr(expr.value);
+        writeInt(expr.depth);
+        return null;
+    }
+
+    @Override
+    public Void visitBinaryExpr(Expr.Binary expr) {
+        writeByte(BINARY);
+        writeExpr(expr.left);
+        writeToken(expr.operator);
+        writeExpr(expr.right);
+        return null;
+    }
+
+    @Override
+    public Void visitCallExpr(Expr.Call expr) {
+        writeByte(CALL);
+        writeExpr(expr.callee);
+        writeToken(expr.paren);
+        writeInt(expr.arguments.size());
+        for (Expr argument : expr.arguments) {
+            writeExpr(argument);
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitGroupingExpr(Expr.Grouping expr) {
+        writeByte(GROUPING);
+        writeExpr(expr.expression);
+        return null;
+    }
+
+    @Override
+    public Void visitGetExpr(Expr.Get expr) {
+        writeByte(GET);
+        writeExpr(expr.object);
+        writeToken(expr.name);
+        return null;
+    }
+
+    @Override
+    public Void visitSetExpr(Expr.Set expr) {
+        writeByte(SET);
+        writeExpr(expr.object);
+        writeToken(expr.name);
+        writeExpr(expr.value);
+        return null;
+    }
+
+    @Override
+    public Void visitThisExpr(Expr.This expr) {
+        writeByte(THIS);
+        writeToken(expr.keyword);
+        writeInt(expr.depth);
+        return null;
+    }
+
+    @Override
+    public Void visitSuperExpr(Expr.Super expr) {
+        writeByte(SUPER);
+        writeToken(expr.keyword);
+        writeToken(expr.method);
+        writeInt(expr.depth);
+        return null;
+    }
+
+    @Override
+    public Void visitLiteralExpr(Expr.Literal expr) {
+        writeByte(LITERAL);
+        Object value = expr.value;
+        if (value == null) {
+            writeByte(NIL_VALUE);
+        } else if (value instanceof Boolean) {
+            writeByte((Boolean)value ? TRUE_VALUE : FALSE_VALUE);
+        } else if (value instanceof Double) {
+            writeByte(NUMBER_VALUE);
+            writeLong(Double.doubleToRawLongBits((Double)value));
+        } else {
+            writeByte(STRING_VALUE);
+            writeString(value.toString());
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitLogicalExpr(Expr.Logical expr) {
+        writeByte(LOGICAL);
+        writeExpr(expr.left);
+        writeToken(expr.operator);
+        writeExpr(expr.right);
+        return null;
+    }
+
+    @Override
+    public Void visitUnaryExpr(Expr.Unary expr) {
+        writeByte(UNARY);
+        writeToken(expr.operator);
+        writeExpr(expr.right);
+        return null;
+    }
+
+    @Override
+    public Void visitVariableExpr(Expr.Variable expr) {
+        writeByte(VARIABLE);
+        writeToken(expr.name);
+        writeInt(expr.depth);
+        return null;
+    }
+
+    @Override
+    public Void visitBreakExpr(Expr.Break expr) {
+        writeByte(BREAK);
+        writeToken(expr.token);
+        return null;
+    }
+
+    @Override
+    public Void visitSpawnExpr(Expr.Spawn expr) {
+        writeByte(SPAWN);
+        writeToken(expr.keyword);
+        writeExpr(expr.call);
+        return null;
+    }
+
+    @Override
+    public Void visitAwaitExpr(Expr.Await expr) {
+        writeByte(AWAIT);
+        writeToken(expr.keyword);
+        writeExpr(expr.value);
+        return null;
+    }
+
+    @Override
+    public Void visitArrayLiteralExpr(Expr.ArrayLiteral expr) {
+        writeByte(ARRAY);
+        writeToken(expr.bracket);
+        writeInt(expr.elements.size());
+        for (Expr element : expr.elements) {
+            writeExpr(element);
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitIndexExpr(Expr.Index expr) {
+        writeByte(INDEX);
+        writeExpr(expr.object);
+        writeToken(expr.bracket);
+        writeExpr(expr.index);
+        return null;
+    }
+
+    @Override
+    public Void visitSetIndexExpr(Expr.SetIndex expr) {
+        writeByte(SET_INDEX);
+        writeExpr(expr.object);
+        writeToken(expr.bracket);
+        writeExpr(expr.index);
+        writeExpr(expr.value);
+        return null;
+    }
+
+    private void writeStmts(List<Stmt> statements) {
+        writeInt(statements.size());
+        for (Stmt statement : statements) {
+            writeStmt(statement);
+        }
+    }
+
+    private void writeStmt(Stmt stmt) {
+        if (stmt == null) {
+            writeByte(NULL);
+            return;
+        }
+        stmt.accept(this);
+    }
+
+    private void writeExpr(Expr expr) {
+        if (expr == null) {
+            writeByte(NULL);
+            return;
+        }
+        expr.accept(this);
+    }
+
+    private void writeToken(Token token) {
+        writeByte(token.type.ordinal());
+        writeString(token.lexeme);
+        writeInt(token.line);
+    }
+
+    private void writeString(String string) {
+        Integer index = pool.get(string);
+        if (index == null) {
+            index = strings.size();
+            strings.add(string);
+            pool.put(string, index);
+        }
+        writeInt(index);
+    }
+
+    private void writeByte(int value) {
+        ensureCapacity(1);
+        body[size++] = (byte)value;
+    }
+
+    private void writeInt(int value) {
+        ensureCapacity(4);
+        body[size++] = (byte)(value >>> 24);
+        body[size++] = (byte)(value >>> 16);
+        body[size++] = (byte)(value >>> 8);
+        body[size++] = (byte)value;
+    }
+
+    private void writeLong(long value) {
+        writeInt((int)(value >>> 32));
+        writeInt((int)value);
+    }
+
+    private void writeBytes(byte[] bytes) {
+        ensureCapacity(bytes.length);
+        System.arraycopy(bytes, 0, body, size, bytes.length);
+        size += bytes.length;
+    }
+
+    private void ensureCapacity(int extra) {
+        if (size + extra > body.length) {
+            body = Arrays.copyOf(body, Math.max(body.length * 2, size + extra));
+        }
+    }
+}
@@ -2,18 +2,35 @@ package com.craftinginterpreters.lox;
 
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 class Environment {
     final Environment enclosing;
-    private static final Object UNINITIALIZED = new Object();
-    private final Map<String, Object> values = new HashMap<>();
+    static final Object UNINITIALIZED = new Object();
+    // stands in for nil in concurrent maps, which cannot hold null
+    static final Object NIL = new Object();
+    final Map<String, Object> values;
+    private final boolean masksNil;
 
     Environment() {
-        this.enclosing = null;
+        this(null);
     }
 
     Environment(Environment enclosing) {
+        this(enclosing, new HashMap<>());
+    }
+
+    // Stores variables directly in values, e.g. a host's javax.script Bindings.
+    Environment(Environment enclosing, Map<String, Object> values) {
         this.enclosing = enclosing;
+        this.values = values;
+        this.masksNil = values instanceof ConcurrentMap;
+    }
+
+    // A scope that spawned tasks read and write concurrently: globals and module scopes.
+    static Environment shared(Environment enclosing) {
+        return new Environment(enclosing, new ConcurrentHashMap<>());
     }
 
     Object get(Token name) {
@@ -22,7 +39,7 @@ class Environment {
             if(value == UNINITIALIZED) {
                 throw new RuntimeError(name, "Accessing uninitialized variable " + name.lexeme + ".");
             }
-            return value;
+            return value == NIL ? null : value;
         }
 
         if(enclosing != null) return enclosing.get(name);
@@ -31,11 +48,13 @@ class Environment {
     }
 
     Object getAt(int distance, String name) {
-        return ancestor(distance).values.get(name);
+        Object value = ancestor(distance).values.get(name);
+        return value == NIL ? null : value;
     }
 
     void assignAt(int distance, Token name, Object value) {
-        ancestor(distance).values.put(name.lexeme, value);
+        Environment environment = ancestor(distance);
+        environment.values.put(name.lexeme, environment.store(value));
     }
 
     Environment ancestor(int distance) {
@@ -49,7 +68,7 @@ class Environment {
 
     void assign(Token name, Object value) {
         if (values.containsKey(name.lexeme)) {
-            values.put(name.lexeme, value);
+            values.put(name.lexeme, store(value));
             return;
         }
 
@@ -61,11 +80,19 @@ class Environment {
         throw new RuntimeError(name, "Undefined variable '" + name.lexeme + "''.");
     }
 
+    boolean contains(String name) {
+        return values.containsKey(name);
+    }
+
     void define(String name, Object value) {
-        values.put(name, value);
+        values.put(name, store(value));
     }
 
     void defineUninitialized(String name) {
         values.put(name, UNINITIALIZED);
     }
+
+    private Object store(Object value) {
+        return value == null && masksNil ? NIL : value;
+    }
 }
@@ -0,0 +1,62 @@
+package com.craftinginterpreters.lox;
+
+import java.io.PrintStream;
+
+// Collects compile and runtime errors for one engine. The flags are volatile
+// because module front ends report from fork-join workers.
+class ErrorReporter {
+    private final PrintStream err;
+    volatile boolean hadError = false;
+    volatile boolean hadRuntimeError = false;
+
+    ErrorReporter(PrintStream err) {
+        this.err = err;
+    }
+
+    void error(int line, String message) {
+        report(line, "", message);
+    }
+
+    void error(Token token, String message) {
+        if(token.type == TokenType.EOF) {
+            report(token.line, " at end", message);
+        } else {
+            report(token.line, " at '" + token.lexeme + "'", message);
+        }
+    }
+
+    synchronized void runtimeError(RuntimeError error) {
+        err.println(error.getMessage());
+        for (String frame : error.trace()) {
+            err.println(frame);
+        }
+        err.println("[line " + error.line() + "]");
+        hadRuntimeError = true;
+    }
+
+    void reset() {
+        hadError = false;
+        hadRuntimeError = false;
+    }
+
+    // Reports compile errors in another file, such as an imported module,
+    // with its name in front. They count as this reporter's errors.
+    ErrorReporter forFile(String file) {
+        ErrorReporter engine = this;
+        return new ErrorReporter(err) {
+            @Override
+            void report(int line, String where, String message) {
+                engine.report(file + ": ", line, where, message);
+            }
+        };
+    }
+
+    void report(int line, String where, String message) {
+        report("", line, where, message);
+    }
+
+    private synchronized void report(String file, int line, String where, String message) {
+        err.println(file + "[line " + line + "] Error" + where + ": " + message);
+        hadError = true;
+    }
+}
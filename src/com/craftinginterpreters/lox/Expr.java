@@ -17,6 +17,11 @@ abstract class Expr {
         R visitUnaryExpr(Unary expr);
         R visitVariableExpr(Variable expr);
         R visitBreakExpr(Break expr);
+        R visitSpawnExpr(Spawn expr);
+        R visitAwaitExpr(Await expr);
+        R visitArrayLiteralExpr(ArrayLiteral expr);
+        R visitIndexExpr(Index expr);
+        R visitSetIndexExpr(SetIndex expr);
     }
     static class Assign extends Expr {
         Assign(Token name, Expr value) {
@@ -30,6 +35,7 @@ abstract class Expr {
 
         final Token name;
         final Expr value;
+        int depth = -1;
     }
     static class Binary extends Expr {
         Binary(Expr left, Token operator, Expr right) {
@@ -110,6 +116,7 @@ abstract class Expr {
         }
 
         final Token keyword;
+        int depth = -1;
     }
     static class Super extends Expr {
         Super(Token keyword, Token method) {
@@ -123,6 +130,7 @@ abstract class Expr {
 
         final Token keyword;
         final Token method;
+        int depth = -1;
     }
     static class Literal extends Expr {
         Literal(Object value) {
@@ -173,6 +181,7 @@ abstract class Expr {
         }
 
         final Token name;
+        int depth = -1;
     }
     static class Break extends Expr {
         Break(Token token) {
@@ -185,6 +194,77 @@ abstract class Expr {
 
         final Token token;
     }
+    static class Spawn extends Expr {
+        Spawn(Token keyword, Expr.Call call) {
+            this.keyword = keyword;
+            this.call = call;
+        }
+
+        <R> R accept(Visitor<R> visitor) {
+            return visitor.visitSpawnExpr(this);
+        }
+
+        final Token keyword;
+        final Expr.Call call;
+    }
+    static class Await extends Expr {
+        Await(Token keyword, Expr value) {
+            this.keyword = keyword;
+            this.value = value;
+        }
+
+        <R> R accept(Visitor<R> visitor) {
+            return visitor.visitAwaitExpr(this);
+        }
+
+        final Token keyword;
+        final Expr value;
+    }
+    static class ArrayLiteral extends Expr {
+        ArrayLiteral(Token bracket, List<Expr> elements) {
+            this.bracket = bracket;
+            this.elements = elements;
+        }
+
+        <R> R accept(Visitor<R> visitor) {
+            return visitor.visitArrayLiteralExpr(this);
+        }
+
+        final Token bracket;
+        final List<Expr> elements;
+    }
+    static class Index extends Expr {
+        Index(Expr object, Token bracket, Expr index) {
+            this.object = object;
+            this.bracket = bracket;
+            this.index = index;
+        }
+
+        <R> R accept(Visitor<R> visitor) {
+            return visitor.visitIndexExpr(this);
+        }
+
+        final Expr object;
+        final Token bracket;
+        final Expr index;
+    }
+    static class SetIndex extends Expr {
+        SetIndex(Expr object, Token bracket, Expr index, Expr value) {
+            this.object = object;
+            this.bracket = bracket;
+            this.index = index;
+            this.value = value;
+        }
+
+        <R> R accept(Visitor<R> visitor) {
+            return visitor.visitSetIndexExpr(this);
+        }
+
+        final Expr object;
+        final Token bracket;
+        final Expr index;
+        final Expr value;
+    }
 
     abstract <R> R accept(Visitor<R> visitor);
 }
@@ -0,0 +1,647 @@
+package com.craftinginterpreters.lox;
+
+import java.util.List;
+
+class FlatAst extends FlatStore {
+    static final int ASSIGN_EXPR = 0;
+    static final int BINARY_EXPR = 1;
+    static final int CALL_EXPR = 2;
+    static final int GROUPING_EXPR = 3;
+    static final int GET_EXPR = 4;
+    static final int SET_EXPR = 5;
+    static final int THIS_EXPR = 6;
+    static final int SUPER_EXPR = 7;
+    static final int LITERAL_EXPR = 8;
+    static final int LOGICAL_EXPR = 9;
+    static final int UNARY_EXPR = 10;
+    static final int VARIABLE_EXPR = 11;
+    static final int BREAK_EXPR = 12;
+    static final int SPAWN_EXPR = 13;
+    static final int AWAIT_EXPR = 14;
+    static final int ARRAYLITERAL_EXPR = 15;
+    static final int INDEX_EXPR = 16;
+    static final int SETINDEX_EXPR = 17;
+    static final int BLOCK_STMT = 18;
+    static final int CLASS_STMT = 19;
+    static final int EXPRESSION_STMT = 20;
+    static final int IF_STMT = 21;
+    static final int PRINT_STMT = 22;
+    static final int VAR_STMT = 23;
+    static final int WHILE_STMT = 24;
+    static final int FORIN_STMT = 25;
+    static final int FUNCTION_STMT = 26;
+    static final int RETURN_STMT = 27;
+    static final int YIELD_STMT = 28;
+    static final int THROW_STMT = 29;
+    static final int TRY_STMT = 30;
+    static final int MATCH_STMT = 31;
+    static final int CASE_STMT = 32;
+    static final int IMPORT_STMT = 33;
+
+    static FlatAst encode(List<Stmt> statements) {
+        FlatAst ast = new FlatAst();
+        Encoder encoder = ast.new Encoder();
+        for (Stmt statement : statements) {
+            ast.addRoot(encoder.encode(statement));
+        }
+        ast.trim();
+        return ast;
+    }
+
+    private class Encoder implements Expr.Visitor<Integer>, Stmt.Visitor<Integer> {
+        int encode(Expr expr) {
+            return expr == null ? -1 : expr.accept(this);
+        }
+
+        int encode(Stmt stmt) {
+            return stmt == null ? -1 : stmt.accept(this);
+        }
+
+        private int[] exprs(List<? extends Expr> exprs) {
+            int[] nodes = new int[exprs.size()];
+            for (int i = 0; i < nodes.length; ++i) nodes[i] = encode(exprs.get(i));
+            return nodes;
+        }
+
+        private int[] stmts(List<? extends Stmt> stmts) {
+            int[] nodes = new int[stmts.size()];
+            for (int i = 0; i < nodes.length; ++i) nodes[i] = encode(stmts.get(i));
+            return nodes;
+        }
+
+        @Override
+        public Integer visitAssignExpr(Expr.Assign expr) {
+            int name = token(expr.name);
+            int value = encode(expr.value);
+            int node = beginNode(ASSIGN_EXPR, expr.depth);
+            slot(name);
+            slot(value);
+            return node;
+        }
+
+        @Override
+        public Integer visitBinaryExpr(Expr.Binary expr) {
+            int left = encode(expr.left);
+            int operator = token(expr.operator);
+            int right = encode(expr.right);
+            int node = beginNode(BINARY_EXPR, -1);
+            slot(left);
+            slot(operator);
+            slot(right);
+            return node;
+        }
+
+        @Override
+        public Integer visitCallExpr(Expr.Call expr) {
+            int callee = encode(expr.callee);
+            int paren = token(expr.paren);
+            int[] arguments = exprs(expr.arguments);
+            int node = beginNode(CALL_EXPR, -1);
+            slot(callee);
+            slot(paren);
+            slots(arguments);
+            return node;
+        }
+
+        @Override
+        public Integer visitGroupingExpr(Expr.Grouping expr) {
+            int expression = encode(expr.expression);
+            int node = beginNode(GROUPING_EXPR, -1);
+            slot(expression);
+            return node;
+        }
+
+        @Override
+        public Integer visitGetExpr(Expr.Get expr) {
+            int object = encode(expr.object);
+            int name = token(expr.name);
+            int node = beginNode(GET_EXPR, -1);
+            slot(object);
+            slot(name);
+            return node;
+        }
+
+        @Override
+        public Integer visitSetExpr(Expr.Set expr) {
+            int object = encode(expr.object);
+            int name = token(expr.name);
+            int value = encode(expr.value);
+            int node = beginNode(SET_EXPR, -1);
+            slot(object);
+            slot(name);
+            slot(value);
+            return node;
+        }
+
+        @Override
+        public Integer visitThisExpr(Expr.This expr) {
+            int keyword = token(expr.keyword);
+            int node = beginNode(THIS_EXPR, expr.depth);
+            slot(keyword);
+            return node;
+        }
+
+        @Override
+        public Integer visitSuperExpr(Expr.Super expr) {
+            int keyword = token(expr.keyword);
+            int method = token(expr.method);
+            int node = beginNode(SUPER_EXPR, expr.depth);
+            slot(keyword);
+            slot(method);
+            return node;
+        }
+
+        @Override
+        public Integer visitLiteralExpr(Expr.Literal expr) {
+            int value = constant(expr.value);
+            int node = beginNode(LITERAL_EXPR, -1);
+            slot(value);
+            return node;
+        }
+
+        @Override
+        public Integer visitLogicalExpr(Expr.Logical expr) {
+            int left = encode(expr.left);
+            int operator = token(expr.operator);
+            int right = encode(expr.right);
+            int node = beginNode(LOGICAL_EXPR, -1);
+            slot(left);
+            slot(operator);
+            slot(right);
+            return node;
+        }
+
+        @Override
+        public Integer visitUnaryExpr(Expr.Unary expr) {
+            int operator = token(expr.operator);
+            int right = encode(expr.right);
+            int node = beginNode(UNARY_EXPR, -1);
+            slot(operator);
+            slot(right);
+            return node;
+        }
+
+        @Override
+        public Integer visitVariableExpr(Expr.Variable expr) {
+            int name = token(expr.name);
+            int node = beginNode(VARIABLE_EXPR, expr.depth);
+            slot(name);
+            return node;
+        }
+
+        @Override
+        public Integer visitBreakExpr(Expr.Break expr) {
+            int token = token(expr.token);
+            int node = beginNode(BREAK_EXPR, -1);
+            slot(token);
+            return node;
+        }
+
+        @Override
+        public Integer visitSpawnExpr(Expr.Spawn expr) {
+            int keyword = token(expr.keyword);
+            int call = encode(expr.call);
+            int node = beginNode(SPAWN_EXPR, -1);
+            slot(keyword);
+            slot(call);
+            return node;
+        }
+
+        @Override
+        public Integer visitAwaitExpr(Expr.Await expr) {
+            int keyword = token(expr.keyword);
+            int value = encode(expr.value);
+            int node = beginNode(AWAIT_EXPR, -1);
+            slot(keyword);
+            slot(value);
+            return node;
+        }
+
+        @Override
+        public Integer visitArrayLiteralExpr(Expr.ArrayLiteral expr) {
+            int bracket = token(expr.bracket);
+            int[] elements = exprs(expr.elements);
+            int node = beginNode(ARRAYLITERAL_EXPR, -1);
+            slot(bracket);
+            slots(elements);
+            return node;
+        }
+
+        @Override
+        public Integer visitIndexExpr(Expr.Index expr) {
+            int object = encode(expr.object);
+            int bracket = token(expr.bracket);
+            int index = encode(expr.index);
+            int node = beginNode(INDEX_EXPR, -1);
+            slot(object);
+            slot(bracket);
+            slot(index);
+            return node;
+        }
+
+        @Override
+        public Integer visitSetIndexExpr(Expr.SetIndex expr) {
+            int object = encode(expr.object);
+            int bracket = token(expr.bracket);
+            int index = encode(expr.index);
+            int value = encode(expr.value);
+            int node = beginNode(SETINDEX_EXPR, -1);
+            slot(object);
+            slot(bracket);
+            slot(index);
+            slot(value);
+            return node;
+        }
+
+        @Override
+        public Integer visitBlockStmt(Stmt.Block stmt) {
+            int[] statements = stmts(stmt.statements);
+            int node = beginNode(BLOCK_STMT, -1);
+            slots(statements);
+            return node;
+        }
+
+        @Override
+        public Integer visitClassStmt(Stmt.Class stmt) {
+            int name = token(stmt.name);
+            int superclass = encode(stmt.superclass);
+            int[] methods = stmts(stmt.methods);
+            int node = beginNode(CLASS_STMT, -1);
+            slot(name);
+            slot(superclass);
+            slots(methods);
+            return node;
+        }
+
+        @Override
+        public Integer visitExpressionStmt(Stmt.Expression stmt) {
+            int expression = encode(stmt.expression);
+            int node = beginNode(EXPRESSION_STMT, -1);
+            slot(expression);
+            return node;
+        }
+
+        @Override
+        public Integer visitIfStmt(Stmt.If stmt) {
+            int condition = encode(stmt.condition);
+            int thenBranch = encode(stmt.thenBranch);
+            int elseBranch = encode(stmt.elseBranch);
+            int node = beginNode(IF_STMT, -1);
+            slot(condition);
+            slot(thenBranch);
+            slot(elseBranch);
+            return node;
+        }
+
+        @Override
+        public Integer visitPrintStmt(Stmt.Print stmt) {
+            int expression = encode(stmt.expression);
+            int node = beginNode(PRINT_STMT, -1);
+            slot(expression);
+            return node;
+        }
+
+        @Override
+        public Integer visitVarStmt(Stmt.Var stmt) {
+            int name = token(stmt.name);
+            int initializer = encode(stmt.initializer);
+            int node = beginNode(VAR_STMT, -1);
+            slot(name);
+            slot(initializer);
+            return node;
+        }
+
+        @Override
+        public Integer visitWhileStmt(Stmt.While stmt) {
+            int condition = encode(stmt.condition);
+            int body = encode(stmt.body);
+            int node = beginNode(WHILE_STMT, -1);
+            slot(condition);
+            slot(body);
+            return node;
+        }
+
+        @Override
+        public Integer visitForInStmt(Stmt.ForIn stmt) {
+            int name = token(stmt.name);
+            int iterable = encode(stmt.iterable);
+            int body = encode(stmt.body);
+            int node = beginNode(FORIN_STMT, -1);
+            slot(name);
+            slot(iterable);
+            slot(body);
+            return node;
+        }
+
+        @Override
+        public Integer visitFunctionStmt(Stmt.Function stmt) {
+            int name = token(stmt.name);
+            int[] params = tokens(stmt.params);
+            int[] body = stmts(stmt.body);
+            int isStatic = stmt.isStatic ? 1 : 0;
+            int isGetter = stmt.isGetter ? 1 : 0;
+            int isGenerator = stmt.isGenerator ? 1 : 0;
+            int node = beginNode(FUNCTION_STMT, -1);
+            slot(name);
+            slots(params);
+            slots(body);
+            slot(isStatic);
+            slot(isGetter);
+            slot(isGenerator);
+            return node;
+        }
+
+        @Override
+        public Integer visitReturnStmt(Stmt.Return stmt) {
+            int keyword = token(stmt.keyword);
+            int value = encode(stmt.value);
+            int node = beginNode(RETURN_STMT, -1);
+            slot(keyword);
+            slot(value);
+            return node;
+        }
+
+        @Override
+        public Integer visitYieldStmt(Stmt.Yield stmt) {
+            int keyword = token(stmt.keyword);
+            int value = encode(stmt.value);
+            int node = beginNode(YIELD_STMT, -1);
+            slot(keyword);
+            slot(value);
+            return node;
+        }
+
+        @Override
+        public Integer visitThrowStmt(Stmt.Throw stmt) {
+            int keyword = token(stmt.keyword);
+            int value = encode(stmt.value);
+            int node = beginNode(THROW_STMT, -1);
+            slot(keyword);
+            slot(value);
+            return node;
+        }
+
+        @Override
+        public Integer visitTryStmt(Stmt.Try stmt) {
+            int keyword = token(stmt.keyword);
+            int[] body = stmts(stmt.body);
+            int name = token(stmt.name);
+            int[] handler = stmts(stmt.handler);
+            int node = beginNode(TRY_STMT, -1);
+            slot(keyword);
+            slots(body);
+            slot(name);
+            slots(handler);
+            return node;
+        }
+
+        @Override
+        public Integer visitMatchStmt(Stmt.Match stmt) {
+            int keyword = token(stmt.keyword);
+            int subject = encode(stmt.subject);
+            int[] cases = stmts(stmt.cases);
+            int otherwise = encode(stmt.otherwise);
+            int node = beginNode(MATCH_STMT, -1);
+            slot(keyword);
+            slot(subject);
+            slots(cases);
+            slot(otherwise);
+            return node;
+        }
+
+        @Override
+        public Integer visitCaseStmt(Stmt.Case stmt) {
+            int keyword = token(stmt.keyword);
+            int[] patterns = exprs(stmt.patterns);
+            int body = encode(stmt.body);
+            int node = beginNode(CASE_STMT, -1);
+            slot(keyword);
+            slots(patterns);
+            slot(body);
+            return node;
+        }
+
+        @Override
+        public Integer visitImportStmt(Stmt.Import stmt) {
+            int keyword = token(stmt.keyword);
+            int path = token(stmt.path);
+            int name = token(stmt.name);
+            int node = beginNode(IMPORT_STMT, -1);
+            slot(keyword);
+            slot(path);
+            slot(name);
+            return node;
+        }
+    }
+
+    @Override
+    Object decode(int node) {
+        if (node < 0) return null;
+
+        int at = slotStart[node];
+        switch (kinds[node]) {
+            case ASSIGN_EXPR: {
+                Token name = tokenAt(slots[at++]);
+                Expr value = (Expr)decode(slots[at++]);
+                Expr.Assign expr = new Expr.Assign(name, value);
+                expr.depth = depths[node];
+                return expr;
+            }
+            case BINARY_EXPR: {
+                Expr left = (Expr)decode(slots[at++]);
+                Token operator = tokenAt(slots[at++]);
+                Expr right = (Expr)decode(slots[at++]);
+                return new Expr.Binary(left, operator, right);
+            }
+            case CALL_EXPR: {
+                Expr callee = (Expr)decode(slots[at++]);
+                Token paren = tokenAt(slots[at++]);
+                List<Expr> arguments = nodeList(at);
+                at += slots[at] + 1;
+                return new Expr.Call(callee, paren, arguments);
+            }
+            case GROUPING_EXPR: {
+                Expr expression = (Expr)decode(slots[at++]);
+                return new Expr.Grouping(expression);
+            }
+            case GET_EXPR: {
+                Expr object = (Expr)decode(slots[at++]);
+                Token name = tokenAt(slots[at++]);
+                return new Expr.Get(object, name);
+            }
+            case SET_EXPR: {
+                Expr object = (Expr)decode(slots[at++]);
+                Token name = tokenAt(slots[at++]);
+                Expr value = (Expr)decode(slots[at++]);
+                return new Expr.Set(object, name, value);
+            }
+            case THIS_EXPR: {
+                Token keyword = tokenAt(slots[at++]);
+                Expr.This expr = new Expr.This(keyword);
+                expr.depth = depths[node];
+                return expr;
+            }
+            case SUPER_EXPR: {
+                Token keyword = tokenAt(slots[at++]);
+                Token method = tokenAt(slots[at++]);
+                Expr.Super expr = new Expr.Super(keyword, method);
+                expr.depth = depths[node];
+                return expr;
+            }
+            case LITERAL_EXPR: {
+                Object value = constants[slots[at++]];
+                return new Expr.Literal(value);
+            }
+            case LOGICAL_EXPR: {
+                Expr left = (Expr)decode(slots[at++]);
+                Token operator = tokenAt(slots[at++]);
+                Expr right = (Expr)decode(slots[at++]);
+                return new Expr.Logical(left, operator, right);
+            }
+            case UNARY_EXPR: {
+                Token operator = tokenAt(slots[at++]);
+                Expr right = (Expr)decode(slots[at++]);
+                return new Expr.Unary(operator, right);
+            }
+            case VARIABLE_EXPR: {
+                Token name = tokenAt(slots[at++]);
+                Expr.Variable expr = new Expr.Variable(name);
+                expr.depth = depths[node];
+                return expr;
+            }
+            case BREAK_EXPR: {
+                Token token = tokenAt(slots[at++]);
+                return new Expr.Break(token);
+            }
+            case SPAWN_EXPR: {
+                Token keyword = tokenAt(slots[at++]);
+                Expr.Call call = (Expr.Call)decode(slots[at++]);
+                return new Expr.Spawn(keyword, call);
+            }
+            case AWAIT_EXPR: {
+                Token keyword = tokenAt(slots[at++]);
+                Expr value = (Expr)decode(slots[at++]);
+                return new Expr.Await(keyword, value);
+            }
+            case ARRAYLITERAL_EXPR: {
+                Token bracket = tokenAt(slots[at++]);
+                List<Expr> elements = nodeList(at);
+                at += slots[at] + 1;
+                return new Expr.ArrayLiteral(bracket, elements);
+            }
+            case INDEX_EXPR: {
+                Expr object = (Expr)decode(slots[at++]);
+                Token bracket = tokenAt(slots[at++]);
+                Expr index = (Expr)decode(slots[at++]);
+                return new Expr.Index(object, bracket, index);
+            }
+            case SETINDEX_EXPR: {
+                Expr object = (Expr)decode(slots[at++]);
+                Token bracket = tokenAt(slots[at++]);
+                Expr index = (Expr)decode(slots[at++]);
+                Expr value = (Expr)decode(slots[at++]);
+                return new Expr.SetIndex(object, bracket, index, value);
+            }
+            case BLOCK_STMT: {
+                List<Stmt> statements = nodeList(at);
+                at += slots[at] + 1;
+                return new Stmt.Block(statements);
+            }
+            case CLASS_STMT: {
+                Token name = tokenAt(slots[at++]);
+                Expr.Variable superclass = (Expr.Variable)decode(slots[at++]);
+                List<Stmt.Function> methods = nodeList(at);
+                at += slots[at] + 1;
+                return new Stmt.Class(name, superclass, methods);
+            }
+            case EXPRESSION_STMT: {
+                Expr expression = (Expr)decode(slots[at++]);
+                return new Stmt.Expression(expression);
+            }
+            case IF_STMT: {
+                Expr condition = (Expr)decode(slots[at++]);
+                Stmt thenBranch = (Stmt)decode(slots[at++]);
+                Stmt elseBranch = (Stmt)decode(slots[at++]);
+                return new Stmt.If(condition, thenBranch, elseBranch);
+            }
+            case PRINT_STMT: {
+                Expr expression = (Expr)decode(slots[at++]);
+                return new Stmt.Print(expression);
+            }
+            case VAR_STMT: {
+                Token name = tokenAt(slots[at++]);
+                Expr initializer = (Expr)decode(slots[at++]);
+                return new Stmt.Var(name, initializer);
+            }
+            case WHILE_STMT: {
+                Expr condition = (Expr)decode(slots[at++]);
+                Stmt body = (Stmt)decode(slots[at++]);
+                return new Stmt.While(condition, body);
+            }
+            case FORIN_STMT: {
+                Token name = tokenAt(slots[at++]);
+                Expr iterable = (Expr)decode(slots[at++]);
+                Stmt body = (Stmt)decode(slots[at++]);
+                return new Stmt.ForIn(name, iterable, body);
+            }
+            case FUNCTION_STMT: {
+                Token name = tokenAt(slots[at++]);
+                List<Token> params = tokenList(at);
+                at += slots[at] + 1;
+                List<Stmt> body = nodeList(at);
+                at += slots[at] + 1;
+                boolean isStatic = slots[at++] != 0;
+                boolean isGetter = slots[at++] != 0;
+                boolean isGenerator = slots[at++] != 0;
+                return new Stmt.Function(name, params, body, isStatic, isGetter, isGenerator);
+            }
+            case RETURN_STMT: {
+                Token keyword = tokenAt(slots[at++]);
+                Expr value = (Expr)decode(slots[at++]);
+                return new Stmt.Return(keyword, value);
+            }
+            case YIELD_STMT: {
+                Token keyword = tokenAt(slots[at++]);
+                Expr value = (Expr)decode(slots[at++]);
+                return new Stmt.Yield(keyword, value);
+            }
+            case THROW_STMT: {
+                Token keyword = tokenAt(slots[at++]);
+                Expr value = (Expr)decode(slots[at++]);
+                return new Stmt.Throw(keyword, value);
+            }
+            case TRY_STMT: {
+                Token keyword = tokenAt(slots[at++]);
+                List<Stmt> body = nodeList(at);
+                at += slots[at] + 1;
+                Token name = tokenAt(slots[at++]);
+                List<Stmt> handler = nodeList(at);
+                at += slots[at] + 1;
+                return new Stmt.Try(keyword, body, name, handler);
+            }
+            case MATCH_STMT: {
+                Token keyword = tokenAt(slots[at++]);
+                Expr subject = (Expr)decode(slots[at++]);
+                List<Stmt.Case> cases = nodeList(at);
+                at += slots[at] + 1;
+                Stmt otherwise = (Stmt)decode(slots[at++]);
+                return new Stmt.Match(keyword, subject, cases, otherwise);
+            }
+            case CASE_STMT: {
+                Token keyword = tokenAt(slots[at++]);
+                List<Expr> patterns = nodeList(at);
+                at += slots[at] + 1;
+                Stmt body = (Stmt)decode(slots[at++]);
+                return new Stmt.Case(keyword, patterns, body);
+            }
+            case IMPORT_STMT: {
+                Token keyword = tokenAt(slots[at++]);
+                Token path = tokenAt(slots[at++]);
+                Token name = tokenAt(slots[at++]);
+                return new Stmt.Import(keyword, path, name);
+            }
+            default:
+                throw new IllegalStateException("Unknown flat AST node kind " + kinds[node] + ".");
+        }
+    }
+}
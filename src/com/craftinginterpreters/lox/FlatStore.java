@@ -0,0 +1,163 @@
+package com.craftinginterpreters.lox;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// Primitive-array storage behind the generated FlatAst. Node i has kind
+// kinds[i] and its fields live in slots[slotStart[i]...]: child node indices,
+// token indices, constant indices, flags and list counts. depths[i] holds the
+// resolver's scope distance for variable-like nodes. Tokens are split into
+// parallel arrays and lexemes share one string pool.
+abstract class FlatStore {
+    int[] kinds = new int[256];
+    int[] slotStart = new int[256];
+    int[] depths = new int[256];
+    int nodeCount = 0;
+
+    int[] slots = new int[1024];
+    int slotCount = 0;
+
+    byte[] tokenTypes = new byte[256];
+    int[] tokenLexemes = new int[256];
+    int[] tokenLines = new int[256];
+    int tokenCount = 0;
+
+    String[] strings = new String[64];
+    int stringCount = 0;
+
+    Object[] constants = new Object[64];
+    int constantCount = 0;
+
+    int[] roots = new int[64];
+    int rootCount = 0;
+
+    private Map<String, Integer> stringIndex = new HashMap<>();
+    private Map<Object, Integer> constantIndex = new HashMap<>();
+    private static final TokenType[] tokenTypeValues = TokenType.values();
+
+    int rootCount() {
+        return rootCount;
+    }
+
+    // Drops the build-time lookup tables and trims every array to size.
+    void trim() {
+        kinds = Arrays.copyOf(kinds, nodeCount);
+        slotStart = Arrays.copyOf(slotStart, nodeCount);
+        depths = Arrays.copyOf(depths, nodeCount);
+        slots = Arrays.copyOf(slots, slotCount);
+        tokenTypes = Arrays.copyOf(tokenTypes, tokenCount);
+        tokenLexemes = Arrays.copyOf(tokenLexemes, tokenCount);
+        tokenLines = Arrays.copyOf(tokenLines, tokenCount);
+        strings = Arrays.copyOf(strings, stringCount);
+        constants = Arrays.copyOf(constants, constantCount);
+        roots = Arrays.copyOf(roots, rootCount);
+        stringIndex = null;
+        constantIndex = null;
+    }
+
+    void addRoot(int node) {
+        if (rootCount == roots.length) roots = Arrays.copyOf(roots, rootCount * 2);
+        roots[rootCount++] = node;
+    }
+
+    int beginNode(int kind, int depth) {
+        if (nodeCount == kinds.length) {
+            int capacity = nodeCount * 2;
+            kinds = Arrays.copyOf(kinds, capacity);
+            slotStart = Arrays.copyOf(slotStart, capacity);
+            depths = Arrays.copyOf(depths, capacity);
+        }
+        kinds[nodeCount] = kind;
+        slotStart[nodeCount] = slotCount;
+        depths[nodeCount] = depth;
+        return nodeCount++;
+    }
+
+    void slot(int value) {
+        if (slotCount == slots.length) slots = Arrays.copyOf(slots, slotCount * 2);
+        slots[slotCount++] = value;
+    }
+
+    void slots(int[] values) {
+        slot(values.length);
+        for (int value : values) {
+            slot(value);
+        }
+    }
+
+    int token(Token token) {
+        if (tokenCount == tokenTypes.length) {
+            int capacity = tokenCount * 2;
+            tokenTypes = Arrays.copyOf(tokenTypes, capacity);
+            tokenLexemes = Arrays.copyOf(tokenLexemes, capacity);
+            tokenLines = Arrays.copyOf(tokenLines, capacity);
+        }
+        tokenTypes[tokenCount] = (byte)token.type.ordinal();
+        tokenLexemes[tokenCount] = string(token.lexeme);
+        tokenLines[tokenCount] = token.line;
+        return tokenCount++;
+    }
+
+    int[] tokens(List<Token> tokens) {
+        int[] indices = new int[tokens.size()];
+        for (int i = 0; i < indices.length; ++i) {
+            indices[i] = token(tokens.get(i));
+        }
+        return indices;
+    }
+
+    int constant(Object value) {
+        if (value instanceof String) value = strings[string((String)value)];
+
+        Integer index = constantIndex.get(value);
+        if (index != null) return index;
+
+        if (constantCount == constants.length) constants = Arrays.copyOf(constants, constantCount * 2);
+        constants[constantCount] = value;
+        constantIndex.put(value, constantCount);
+        return constantCount++;
+    }
+
+    private int string(String string) {
+        Integer index = stringIndex.get(string);
+        if (index != null) return index;
+
+        if (stringCount == strings.length) strings = Arrays.copyOf(strings, stringCount * 2);
+        strings[stringCount] = string;
+        stringIndex.put(string, stringCount);
+        return stringCount++;
+    }
+
+    Token tokenAt(int index) {
+        return Token.restore(tokenTypeValues[tokenTypes[index]], strings[tokenLexemes[index]], tokenLines[index]);
+    }
+
+    List<Token> tokenList(int at) {
+        int count = slots[at];
+        List<Token> tokens = new ArrayList<>(count);
+        for (int i = 1; i <= count; ++i) {
+            tokens.add(tokenAt(slots[at + i]));
+        }
+        return tokens;
+    }
+
+    @SuppressWarnings("unchecked")
+    <T> List<T> nodeList(int at) {
+        int count = slots[at];
+        List<T> nodes = new ArrayList<>(count);
+        for (int i = 1; i <= count; ++i) {
+            nodes.add((T)decode(slots[at + i]));
+        }
+        return nodes;
+    }
+
+    abstract Object decode(int node);
+
+    // Materializes one top-level statement, resolved depths included.
+    Stmt decodeRoot(int index) {
+        return (Stmt)decode(roots[index]);
+    }
+}
@@ -0,0 +1,209 @@
+package com.craftinginterpreters.lox;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// Front end for tools that re-submit a whole edited source file. The source is
+// split into top-level declarations and each one is scanned, parsed and
+// resolved only if its text changed since the last version.
+// Top-level names are globals, so a declaration resolves independently of its
+// neighbours and its AST, depths included, can be reused as it is. One that
+// only moved, because lines were added or removed above it, is copied with
+// its line numbers shifted.
+class IncrementalCompiler {
+    private static class Segment {
+        final String text;
+        final int line;
+
+        Segment(String text, int line) {
+            this.text = text;
+            this.line = line;
+        }
+    }
+
+    private static class Compiled {
+        final int line;
+        final List<Stmt> statements;
+
+        Compiled(int line, List<Stmt> statements) {
+            this.line = line;
+            this.statements = statements;
+        }
+    }
+
+    // keywords that continue a statement after its '}' or ';'
+    private static final String[] CONTINUATIONS = { "else", "catch" };
+
+    private final ErrorReporter errors;
+    private Map<String, Compiled> previous = new HashMap<>();
+    // declarations the last compile took from the version before, and compiled
+    int reused = 0;
+    int compiled = 0;
+
+    IncrementalCompiler(ErrorReporter errors) {
+        this.errors = errors;
+    }
+
+    List<Stmt> compile(String source) {
+        reused = 0;
+        compiled = 0;
+        Map<String, Compiled> next = new HashMap<>();
+        List<Stmt> program = new ArrayList<>();
+        boolean failed = false;
+
+        for (Segment segment : split(source)) {
+            Compiled known = previous.get(segment.text);
+            List<Stmt> statements;
+            if (known != null) {
+                statements = known.line == segment.line
+                    ? known.statements
+                    : shift(known.statements, segment.line - known.line);
+                reused++;
+            } else {
+                statements = compileSegment(segment);
+                if (statements == null) {
+                    failed = true;
+                    continue;
+                }
+                compiled++;
+            }
+
+            next.put(segment.text, new Compiled(segment.line, statements));
+            program.addAll(statements);
+        }
+
+        previous = next;
+        return failed ? null : program;
+    }
+
+    String stats() {
+        return String.format("[incremental] reused: %d, compiled: %d", reused, compiled);
+    }
+
+    private List<Stmt> compileSegment(Segment segment) {
+        boolean hadError = errors.hadError;
+        errors.hadError = false;
+
+        Scanner scanner = new Scanner(segment.text, segment.line, errors);
+        Parser parser = new Parser(scanner.scanTokens(), errors);
+        List<Stmt> statements = parser.parse();
+
+        if (!errors.hadError) {
+            Resolver resolver = new Resolver(errors);
+            resolver.resolve(statements);
+        }
+
+        boolean failed = errors.hadError;
+        errors.hadError = hadError || failed;
+        return failed ? null : statements;
+    }
+
+    // A copy of statements with every line number moved by lines.
+    private static List<Stmt> shift(List<Stmt> statements, int lines) {
+        byte[] bytes = new AstWriter().write(statements);
+        return new AstReader(ByteBuffer.wrap(bytes), lines).read();
+    }
+
+    // Cuts the source after each ';' or '}' at nesting depth zero, unless an
+    // 'else' or 'catch' follows. Strings and comments are skipped so their contents
+    // never end a segment. Whitespace between declarations goes to the next one.
+    private static List<Segment> split(String source) {
+        List<Segment> segments = new ArrayList<>();
+        int start = 0;
+        int startLine = 1;
+        int line = 1;
+        int depth = 0;
+        int i = 0;
+
+        while (i < source.length()) {
+            char c = source.charAt(i);
+            if (c == '\n') {
+                line++;
+                i++;
+            } else if (c == '"') {
+                i++;
+                while (i < source.length() && source.charAt(i) != '"') {
+                    if (source.charAt(i) == '\n') line++;
+                    i++;
+                }
+                i++;
+            } else if (c == '/' && next(source, i) == '/') {
+                while (i < source.length() && source.charAt(i) != '\n') i++;
+            } else if (c == '/' && next(source, i) == '*') {
+                int nesting = 1;
+                i += 2;
+                while (nesting > 0 && i < source.length()) {
+                    if (source.charAt(i) == '/' && next(source, i) == '*') {
+                        nesting++;
+                        i += 2;
+                    } else if (source.charAt(i) == '*' && next(source, i) == '/') {
+                        nesting--;
+                        i += 2;
+                    } else {
+                        if (source.charAt(i) == '\n') line++;
+                        i++;
+                    }
+                }
+            } else {
+                if (c == '(' || c == '{') depth++;
+                if (c == ')' || c == '}') depth--;
+                i++;
+
+                if (depth == 0 && (c == ';' || c == '}') && !continues(source, i)) {
+                    segments.add(new Segment(source.substring(start, i), startLine));
+                    start = i;
+                    startLine = line;
+                }
+            }
+        }
+
+        if (start < source.length()) {
+            segments.add(new Segment(source.substring(start), startLine));
+        }
+
+        return segments;
+    }
+
+    private static boolean continues(String source, int i) {
+        for (;;) {
+            while (i < source.length() && Character.isWhitespace(source.charAt(i))) i++;
+
+            if (source.startsWith("//", i)) {
+                while (i < source.length() && source.charAt(i) != '\n') i++;
+            } else if (source.startsWith("/*", i)) {
+                int nesting = 1;
+                i += 2;
+                while (nesting > 0 && i < source.length()) {
+                    if (source.startsWith("/*", i)) {
+                        nesting++;
+                        i += 2;
+                    } else if (source.startsWith("*/", i)) {
+                        nesting--;
+                        i += 2;
+                    } else {
+                        i++;
+                    }
+                }
+            } else {
+                break;
+            }
+        }
+
+        for (String keyword : CONTINUATIONS) {
+            if (!source.startsWith(keyword, i)) continue;
+
+            int end = i + keyword.length();
+            if (end >= source.length()) return true;
+            char c = source.charAt(end);
+            if (!(Character.isLetterOrDigit(c) || c == '_')) return true;
+        }
+        return false;
+    }
+
+    private static char next(String source, int i) {
+        return i + 1 < source.length() ? source.charAt(i + 1) : '\0';
+    }
+}
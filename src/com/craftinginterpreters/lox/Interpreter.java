@@ -4,20 +4,42 @@ import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
-    private static class BreakException extends RuntimeError {
+    static class BreakException extends RuntimeError {
         BreakException(Token token, String message) {
             super(token, message);
         }
     }
     
-    final Environment globals = new Environment();
-    private Environment environment = globals;
-    private final Map<Expr, Integer> locals = new HashMap<>();
-
-    Interpreter() {
-        globals.define("clock", new LoxCallable() {
+    final Environment natives;
+    final Environment globals;
+    private Environment environment;
+    // top-level scope of the module currently running; unresolved names live here
+    private Environment module;
+    // how many 'try' bodies are running; backtraces are only kept at zero
+    private int tryDepth = 0;
+    final ModuleLoader modules;
+    final OutputSink output;
+    final ErrorReporter errors;
+    final TaskRunner tasks;
+
+    Interpreter(OutputSink output, ErrorReporter errors) {
+        this(output, errors, new ConcurrentHashMap<>());
+    }
+
+    // Keeps global variables in globalValues, so the host sees them without copying.
+    Interpreter(OutputSink output, ErrorReporter errors, Map<String, Object> globalValues) {
+        this.output = output;
+        this.errors = errors;
+        this.natives = new Environment();
+        this.globals = new Environment(natives, globalValues);
+        this.environment = globals;
+        this.module = globals;
+        this.modules = new ModuleLoader(this);
+        this.tasks = new TaskRunner();
+        natives.define("clock", new LoxCallable() {
             @Override 
             public int arity() { return 0; }
 
@@ -30,6 +52,100 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
             public String toString() { return "<native fn>"; };
         });
 
+        natives.define("channel", new NativeFunction("channel", 1) {
+            @Override
+            public Object call(Interpreter interpreter, List<Object> arguments) {
+                Object capacity = arguments.get(0);
+                if (!(capacity instanceof Double) || (Double)capacity < 1 || (Double)capacity % 1 != 0) {
+                    throw new RuntimeError(null, "Channel capacity must be a positive integer.");
+                }
+                return new LoxChannel((int)(double)(Double)capacity);
+            }
+        });
+
+        natives.define("array", new NativeFunction("array", 1) {
+            @Override
+            public Object call(Interpreter interpreter, List<Object> arguments) {
+                Object length = arguments.get(0);
+                if (!(length instanceof Double) || (Double)length < 0 || (Double)length % 1 != 0) {
+                    throw new RuntimeError(null, "Array length must be a non-negative integer.");
+                }
+                return LoxArray.nils((int)(double)(Double)length);
+            }
+        });
+
+        natives.define("map", new NativeFunction("map", 0) {
+            @Override
+            public Object call(Interpreter interpreter, List<Object> arguments) {
+                return new LoxMap();
+            }
+        });
+
+        natives.define("persistentVector", new NativeFunction("persistentVector", 1) {
+            @Override
+            public Object call(Interpreter interpreter, List<Object> arguments) {
+                if (!(arguments.get(0) instanceof LoxArray)) {
+                    throw new RuntimeError(null, "persistentVector expects an array.");
+                }
+                return PersistentVector.of((LoxArray)arguments.get(0));
+            }
+        });
+
+        natives.define("persistentMap", new NativeFunction("persistentMap", 1) {
+            @Override
+            public Object call(Interpreter interpreter, List<Object> arguments) {
+                if (!(arguments.get(0) instanceof LoxMap)) {
+                    throw new RuntimeError(null, "persistentMap expects a map.");
+                }
+                return PersistentMap.of((LoxMap)arguments.get(0));
+            }
+        });
+
+        natives.define("range", new NativeFunction("range", 2) {
+            @Override
+            public Object call(Interpreter interpreter, List<Object> arguments) {
+                if (!(arguments.get(0) instanceof Double) || !(arguments.get(1) instanceof Double)) {
+                    throw new RuntimeError(null, "range expects two numbers.");
+                }
+                // past 2^53 adding 1 no longer gives the next number
+                if (!LoxSequence.Range.isSafe((Double)arguments.get(0)) || !LoxSequence.Range.isSafe((Double)arguments.get(1))) {
+                    throw new RuntimeError(null, "range bounds must be between -2^53 and 2^53.");
+                }
+                return new LoxSequence.Range((Double)arguments.get(0), (Double)arguments.get(1));
+            }
+        });
+
+        ParallelCollections.define(natives);
+        NumericArrays.define(natives);
+
+    }
+
+    // An interpreter for another thread: same globals, modules and output as
+    // parent, but its own current scope.
+    private Interpreter(Interpreter parent) {
+        this.output = parent.output;
+        this.errors = parent.errors;
+        this.natives = parent.natives;
+        this.globals = parent.globals;
+        this.environment = parent.globals;
+        this.module = parent.module;
+        this.modules = parent.modules;
+        this.tasks = parent.tasks;
+    }
+
+    Interpreter fork() {
+        return new Interpreter(this);
+    }
+
+    // Counts try blocks a generator walks itself, which visitTryStmt never
+    // sees, for as long as they are running.
+    void trying(int blocks) {
+        tryDepth += blocks;
+    }
+
+    // Whether an error thrown now could reach the top and be reported.
+    boolean tracing() {
+        return tryDepth == 0;
     }
 
     void interpret(List<Stmt> statements) {
@@ -38,40 +154,122 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
                 execute(statement);
             }
         } catch (RuntimeError error) {
-            Lox.runtimeError(error);
+            report(error);
         }
+        awaitTasks();
+    }
+
+    // Like interpret(), but lets RuntimeErrors escape to the caller and returns
+    // the value of a trailing expression statement.
+    Object evaluateAll(List<Stmt> statements) {
+        int last = statements.size() - 1;
+        for (int i = 0; i < last; ++i) {
+            execute(statements.get(i));
+        }
+
+        if (last < 0) return null;
+        Stmt tail = statements.get(last);
+        if (tail instanceof Stmt.Expression) {
+            return evaluate(((Stmt.Expression)tail).expression);
+        }
+        execute(tail);
+        return null;
+    }
+
+    // Materializes and runs one top-level statement at a time, so only the
+    // parts of the program that have been reached exist as tree nodes.
+    void interpret(FlatAst program) {
+        try {
+            for (int i = 0; i < program.rootCount(); ++i) {
+                execute(program.decodeRoot(i));
+            }
+        } catch (RuntimeError error) {
+            report(error);
+        }
+        awaitTasks();
     }
 
     Object interpretExpression(Expr expression) {
         try {
             return evaluate(expression);
         } catch (RuntimeError error) {
-            Lox.runtimeError(error);
+            report(error);
             return null;
         }
     }
 
+    // The program ends when its last task does. Failures nobody awaited are
+    // reported here rather than lost.
+    private void awaitTasks() {
+        for (RuntimeError error : tasks.awaitAll()) {
+            report(error);
+        }
+    }
+
+    private void report(RuntimeError error) {
+        // keep buffered output ahead of the error message
+        output.flush();
+        errors.runtimeError(error);
+    }
+
     private void execute(Stmt stmt) {
         stmt.accept(this);
     }
 
-    void resolve(Expr expr, int depth) {
-        locals.put(expr, depth);
+    void executeBlock(List<Stmt> statements, Environment environment) {
+        executeBlock(statements, environment, module);
     }
 
-    void executeBlock(List<Stmt> statements, Environment environment) {
+    void executeBlock(List<Stmt> statements, Environment environment, Environment module) {
         Environment previous = this.environment;
+        Environment previousModule = this.module;
         try {
             this.environment = environment;
+            this.module = module;
 
             for(Stmt statement : statements) {
                 execute(statement);
             }
         } finally {
             this.environment = previous;
+            this.module = previousModule;
+        }
+    }
+
+    // One statement or expression of a suspended generator, run in its scope.
+    void execute(Stmt stmt, Environment environment, Environment module) {
+        Environment previous = this.environment;
+        Environment previousModule = this.module;
+        try {
+            this.environment = environment;
+            this.module = module;
+            execute(stmt);
+        } finally {
+            this.environment = previous;
+            this.module = previousModule;
         }
     }
 
+    Object evaluate(Expr expr, Environment environment, Environment module) {
+        Environment previous = this.environment;
+        Environment previousModule = this.module;
+        try {
+            this.environment = environment;
+            this.module = module;
+            return evaluate(expr);
+        } finally {
+            this.environment = previous;
+            this.module = previousModule;
+        }
+    }
+
+    // Runs a module's top level in a fresh namespace that only sees the natives.
+    Environment executeModule(List<Stmt> statements) {
+        Environment scope = Environment.shared(natives);
+        executeBlock(statements, scope, scope);
+        return scope;
+    }
+
     @Override
     public Void visitBlockStmt(Stmt.Block stmt) {
         executeBlock(stmt.statements, new Environment(environment));
@@ -99,7 +297,7 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
         Map<String, LoxFunction> staticMethods = new HashMap<>();
         for (Stmt.Function method : stmt.methods) {
             boolean isInitializer = method.name.lexeme.equals("init") && !method.isStatic;
-            LoxFunction function = new LoxFunction(method, environment, isInitializer);
+            LoxFunction function = new LoxFunction(method, environment, module, isInitializer);
             if (method.isStatic) {
                 staticMethods.put(method.name.lexeme, function);
             } else {
@@ -129,7 +327,7 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
 
     @Override
     public Void visitFunctionStmt(Stmt.Function stmt) {
-        LoxFunction function = new LoxFunction(stmt, environment, false);
+        LoxFunction function = new LoxFunction(stmt, environment, module, false);
         environment.define(stmt.name.lexeme, function);
         return null;
     }
@@ -145,10 +343,16 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
         return null;
     }
 
+    @Override
+    public Void visitImportStmt(Stmt.Import stmt) {
+        environment.define(stmt.name.lexeme, modules.load(stmt, this));
+        return null;
+    }
+
     @Override
     public Void visitPrintStmt(Stmt.Print stmt) {
         Object value = evaluate(stmt.expression);
-        System.out.println(stringify(value));
+        output.println(stringify(value));
         return null;
     }
 
@@ -172,6 +376,73 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
         return null;
     }
 
+    @Override
+    public Void visitForInStmt(Stmt.ForIn stmt) {
+        LoxSequence.Cursor cursor = LoxSequence.over(evaluate(stmt.iterable), this, stmt.name);
+
+        // a new variable each step, so closures made in the body keep
+        // their own element
+        Environment previous = environment;
+        try {
+            for (Object value = cursor.next(); value != LoxSequence.DONE; value = cursor.next()) {
+                Environment step = new Environment(previous);
+                step.define(stmt.name.lexeme, value);
+                environment = step;
+                execute(stmt.body);
+            }
+        } catch (BreakException ex) {
+        } finally {
+            environment = previous;
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitMatchStmt(Stmt.Match stmt) {
+        Stmt arm = MatchTable.select(stmt, evaluate(stmt.subject), this, environment, module);
+        if (arm != null) execute(arm);
+        return null;
+    }
+
+    @Override
+    public Void visitCaseStmt(Stmt.Case stmt) {
+        execute(stmt.body);
+        return null;
+    }
+
+    @Override
+    public Void visitThrowStmt(Stmt.Throw stmt) {
+        Object value = evaluate(stmt.value);
+        throw RuntimeError.thrown(stmt.keyword, value);
+    }
+
+    @Override
+    public Void visitTryStmt(Stmt.Try stmt) {
+        RuntimeError caught;
+        tryDepth++;
+        try {
+            executeBlock(stmt.body, new Environment(environment));
+            return null;
+        } catch (BreakException error) {
+            throw error;
+        } catch (RuntimeError error) {
+            caught = error;
+        } finally {
+            tryDepth--;
+        }
+
+        Environment handler = new Environment(environment);
+        handler.define(stmt.name.lexeme, caught.value);
+        executeBlock(stmt.handler, handler);
+        return null;
+    }
+
+    @Override
+    public Void visitYieldStmt(Stmt.Yield stmt) {
+        // LoxGenerator runs every statement that contains a yield itself
+        throw new RuntimeError(stmt.keyword, "Can only yield inside a generator.");
+    }
+
     @Override
     public Void visitWhileStmt(Stmt.While stmt) {
         try {
@@ -187,11 +458,10 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
     public Object visitAssignExpr(Expr.Assign expr) {
         Object value = evaluate(expr.value);
         
-        Integer distance = locals.get(expr);
-        if(distance != null) {
-            environment.assignAt(distance, expr.name, value);
+        if(expr.depth >= 0) {
+            environment.assignAt(expr.depth, expr.name, value);
         } else {
-            globals.assign(expr.name, value);
+            module.assign(expr.name, value);
         }
 
         return value;
@@ -241,15 +511,14 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
 
     @Override
     public Object visitVariableExpr(Expr.Variable expr) {
-        return lookUpVariable(expr.name, expr);
+        return lookUpVariable(expr.name, expr.depth);
     }
 
-    private Object lookUpVariable(Token name, Expr expr) {
-        Integer distance = locals.get(expr);
-        if(distance != null) {
+    private Object lookUpVariable(Token name, int distance) {
+        if(distance >= 0) {
             return environment.getAt(distance, name.lexeme);
         } else {
-            return globals.get(name);
+            return module.get(name);
         }
     }
 
@@ -285,8 +554,8 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
                     return (double)left + (double)right;
                 }
 
-                if(left instanceof String || right instanceof String) {
-                    return stringify(left) + stringify(right);
+                if(isString(left) || isString(right)) {
+                    return LoxRope.concat(text(left), text(right));
                 }
 
                 throw new RuntimeError(expr.operator, "Operands must be numbers or strings. String AND number are allowed.");
@@ -309,17 +578,98 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
             arguments.add(evaluate(argument));
         }
 
+        return call(callable(callee, arguments, expr.paren), arguments, expr.paren);
+    }
+
+    private static LoxCallable callable(Object callee, List<Object> arguments, Token paren) {
         if(!(callee instanceof LoxCallable)) {
-            throw new RuntimeError(expr.paren, "Can only call functions and classes.");
+            throw new RuntimeError(paren, "Can only call functions and classes.");
         }
 
         LoxCallable function = (LoxCallable)callee;
 
         if(arguments.size() != function.arity()) {
-            throw new RuntimeError(expr.paren, "Expected " + function.arity() + " arguments but got " + arguments.size() + ".");
+            throw new RuntimeError(paren, "Expected " + function.arity() + " arguments but got " + arguments.size() + ".");
+        }
+
+        return function;
+    }
+
+    // Natives that fail without a token of their own are blamed on the call site.
+    Object call(LoxCallable function, List<Object> arguments, Token site) {
+        try {
+            return function.call(this, arguments);
+        } catch (RuntimeError error) {
+            if (error.token == null) throw new RuntimeError(site, error.getMessage(), error.value);
+            if (tracing()) error.calledFrom(site);
+            throw error;
         }
+    }
+
+    @Override
+    public Object visitSpawnExpr(Expr.Spawn expr) {
+        Object callee = evaluate(expr.call.callee);
 
-        return function.call(this, arguments);
+        List<Object> arguments = new ArrayList<>();
+        for (Expr argument : expr.call.arguments) {
+            arguments.add(evaluate(argument));
+        }
+
+        LoxCallable function = callable(callee, arguments, expr.call.paren);
+        return tasks.spawn(fork(), function, arguments, expr.keyword);
+    }
+
+    @Override
+    public Object visitArrayLiteralExpr(Expr.ArrayLiteral expr) {
+        Object[] elements = new Object[expr.elements.size()];
+        for (int i = 0; i < elements.length; ++i) {
+            elements[i] = evaluate(expr.elements.get(i));
+        }
+        return LoxArray.of(elements, elements.length);
+    }
+
+    @Override
+    public Object visitIndexExpr(Expr.Index expr) {
+        Object object = evaluate(expr.object);
+        Object index = evaluate(expr.index);
+        if (object instanceof LoxMap) return ((LoxMap)object).get(index);
+        if (object instanceof PersistentMap) return ((PersistentMap)object).get(index);
+        if (object instanceof PersistentVector) {
+            PersistentVector vector = (PersistentVector)object;
+            return vector.get(LoxArray.index(expr.bracket, index, vector.size()));
+        }
+        return array(object, expr.bracket).get(expr.bracket, index);
+    }
+
+    @Override
+    public Object visitSetIndexExpr(Expr.SetIndex expr) {
+        Object object = evaluate(expr.object);
+        Object index = evaluate(expr.index);
+        Object value = evaluate(expr.value);
+        if (object instanceof LoxMap) {
+            ((LoxMap)object).put(index, value);
+        } else if (object instanceof PersistentVector || object instanceof PersistentMap) {
+            throw new RuntimeError(expr.bracket, "Persistent collections can't be changed in place.");
+        } else {
+            array(object, expr.bracket).set(expr.bracket, index, value);
+        }
+        return value;
+    }
+
+    private static LoxArray array(Object object, Token bracket) {
+        if (!(object instanceof LoxArray)) {
+            throw new RuntimeError(bracket, "Only arrays and maps can be indexed.");
+        }
+        return (LoxArray)object;
+    }
+
+    @Override
+    public Object visitAwaitExpr(Expr.Await expr) {
+        Object value = evaluate(expr.value);
+        if (!(value instanceof LoxFuture)) {
+            throw new RuntimeError(expr.keyword, "Can only await a future.");
+        }
+        return ((LoxFuture)value).await();
     }
 
     public Object visitGetExpr(Expr.Get expr) {
@@ -329,11 +679,39 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
             return ((LoxInstance) object).get(expr.name, this);
         }
 
+        if(object instanceof LoxModule) {
+            return ((LoxModule) object).get(expr.name);
+        }
+
+        if(object instanceof LoxChannel) {
+            return ((LoxChannel) object).get(expr.name);
+        }
+
+        if(object instanceof LoxArray) {
+            return ((LoxArray) object).get(expr.name);
+        }
+
+        if(object instanceof LoxMap) {
+            return ((LoxMap) object).get(expr.name);
+        }
+
+        if(object instanceof PersistentVector) {
+            return ((PersistentVector) object).get(expr.name);
+        }
+
+        if(object instanceof PersistentMap) {
+            return ((PersistentMap) object).get(expr.name);
+        }
+
+        if(object instanceof LoxSequence) {
+            return ((LoxSequence) object).get(expr.name);
+        }
+
         if(object instanceof LoxClass) {
             LoxFunction method = ((LoxClass) object).findStaticMethod(expr.name.lexeme);
             if(method != null) {
                 if (method.isGetter()) {
-                    return method.call(this, new java.util.ArrayList<>());
+                    return call(method, new java.util.ArrayList<>(), expr.name);
                 }
                 return method; // return unbound static method
             }
@@ -356,7 +734,7 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
 
     @Override
     public Object visitSuperExpr(Expr.Super expr) {
-        int distance = locals.get(expr);
+        int distance = expr.depth;
         LoxClass superclass = (LoxClass)environment.getAt(distance, "super");
 
         Object object = environment.getAt(distance - 1, "this");
@@ -376,7 +754,7 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
 
     @Override
     public Object visitThisExpr(Expr.This expr) {
-        return lookUpVariable(expr.keyword, expr);
+        return lookUpVariable(expr.keyword, expr.depth);
     }
 
     private void checkNumberOperand(Token operator, Object operand) {
@@ -395,6 +773,8 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
     }
 
     private void checkComparisonOperand(Token operator, Object left, Object right) {
+        left = LoxRope.flatten(left);
+        right = LoxRope.flatten(right);
         if (left == null || right == null) return; // nil can be compared with anything
         if (left.getClass() == right.getClass()) return; // same types always comparable
         
@@ -416,6 +796,8 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
     }
     
     private int compareValues(Object left, Object right) {
+        left = LoxRope.flatten(left);
+        right = LoxRope.flatten(right);
         if (left == null && right == null) return 0;    // nil == nil
         if (left == null) return -1;                    // nil < anything
         if (right == null) return 1;                    // anyhting > nil
@@ -425,20 +807,16 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
         if (left instanceof String && right instanceof String) return ((String)left).compareTo((String)right);
         if (left instanceof Boolean && right instanceof Boolean) return Boolean.compare((Boolean)left, (Boolean)right);
         
-        // mixed type comparisons
+        // mixed type comparisons; number < string when the string isn't a number
         if (left instanceof Double && right instanceof String) {
-            try {
-                return Double.compare((Double)left, Double.parseDouble((String)right));
-            } catch (NumberFormatException e) { // number < string (according to ordering)
-                return -1;
-            }
+            long bits = Numbers.numberBits((String)right);
+            if (bits == Numbers.NOT_A_NUMBER) return -1;
+            return Double.compare((Double)left, Double.longBitsToDouble(bits));
         }
         if (left instanceof String && right instanceof Double) {
-            try {
-                return Double.compare(Double.parseDouble((String)left), (Double)right);
-            } catch (NumberFormatException e) { // number < string (according to ordering)
-                return 1;
-            }
+            long bits = Numbers.numberBits((String)left);
+            if (bits == Numbers.NOT_A_NUMBER) return 1;
+            return Double.compare(Double.longBitsToDouble(bits), (Double)right);
         }
         
         return Integer.compare(getTypeOrder(left), getTypeOrder(right));
@@ -452,22 +830,22 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
         return 4; // unknown types come last
     }
 
-    String stringify(Object object) {
+    static String stringify(Object object) {
         if(object == null) return "nil";
+        if(object instanceof Double) return Numbers.format((double)object);
+        return object.toString();
+    }
 
-        if(object instanceof Double) {
-            String text = object.toString();
-            if(text.endsWith(".0")) {
-                text = text.substring(0, text.length() - 2);
-            }
-
-            return text;
-        }
+    private static CharSequence text(Object object) {
+        if(object instanceof CharSequence) return (CharSequence)object;
+        return stringify(object);
+    }
 
-        return object.toString();
+    private static boolean isString(Object object) {
+        return object instanceof String || object instanceof LoxRope;
     }
 
-    private boolean isTruthy(Object object) {
+    static boolean isTruthy(Object object) {
         if(object == null) return false;
         if(object instanceof Boolean) return (boolean) object;
         return true;
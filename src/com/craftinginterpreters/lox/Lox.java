@@ -6,112 +6,147 @@ import java.io.InputStreamReader;
 import java.nio.charset.Charset;
 import java.nio.file.Files;
 import java.nio.file.Paths;
-import java.util.List;
+import java.util.Arrays;
 
 public class Lox {
-    private static Interpreter interpreter = new Interpreter();
-    static boolean hadError = false;
-    static boolean hadRuntimeError = false;
-    private static boolean suppressErrors = false;
-
     public static void main(String[] args) throws IOException {
-        if(args.length > 1) {
+        if(args.length > 0 && args[0].equals("--server")) {
+            if(args.length != 2) {
+                System.out.println("Usage: jlox --server <socket>");
+                System.exit(64);
+            }
+            if(!LoxServer.canListen(Paths.get(args[1]))) {
+                System.out.println(args[1] + " exists and is not a socket.");
+                System.out.println("Usage: jlox --server <socket>");
+                System.exit(64);
+            }
+            new LoxServer(Paths.get(args[1])).serve();
+        } else if(args.length > 0 && args[0].equals("--connect")) {
+            if(args.length < 2) {
+                System.out.println("Usage: jlox --connect <socket> script");
+                System.exit(64);
+            }
+            System.exit(LoxClient.run(Paths.get(args[1]), Arrays.copyOfRange(args, 2, args.length)));
+        } else if(args.length > 0 && args[0].equals("--snapshot")) {
+            if(args.length != 3) {
+                System.out.println("Usage: jlox --snapshot <prelude> <image>");
+                System.exit(64);
+            }
+            snapshot(args[1], args[2]);
+        } else if(args.length > 0 && args[0].equals("--image")) {
+            if(args.length != 3) {
+                System.out.println("Usage: jlox --image <image> script");
+                System.exit(64);
+            }
+            runFile(args[2], args[1]);
+        } else if(args.length > 0 && args[0].equals("--recompile")) {
+            if(args.length < 2) {
+                System.out.println("Usage: jlox --recompile <version> [<version> ...]");
+                System.exit(64);
+            }
+            runVersions(Arrays.copyOfRange(args, 1, args.length));
+        } else if(args.length > 0 && args[0].equals("--batch")) {
+            runBatch(args);
+        } else if(args.length > 1) {
             System.out.println("Usage: jlox [script]");
             System.exit(64);
         } else if(args.length == 1) {
-            runFile(args[0]);
+            runFile(args[0], null);
         } else {
             runPrompt();
         }
     }
 
-    private static void runFile(String path) throws IOException {
-        byte[] bytes = Files.readAllBytes(Paths.get(path));
-        run(new String(bytes, Charset.defaultCharset()));
-        if(hadError) System.exit(65);
-        if(hadRuntimeError) System.exit(70);
-    }
+    private static void runFile(String path, String image) throws IOException {
+        LoxEngine engine = new LoxEngine();
+        if(image != null) restore(engine, image);
+        engine.runFile(Paths.get(path));
 
-    private static void runPrompt() throws IOException {
-        InputStreamReader input = new InputStreamReader(System.in);
-        BufferedReader reader = new BufferedReader(input);
+        if(engine.hadError()) System.exit(65);
+        if(engine.hadRuntimeError()) System.exit(70);
+    }
 
-        for(;;) {
-            System.out.print("> ");
-            String line = reader.readLine();
-            if(line == null) break;
-            runRepl(line);
-            hadError = false;
+    // Compiles each file as an edit of the one before, the way an editor
+    // resubmits a buffer, and runs every version on a fresh engine. What the
+    // front end reused is printed to stderr after each one.
+    private static void runVersions(String[] paths) throws IOException {
+        LoxEngine compiler = new LoxEngine();
+        for(String path : paths) {
+            String source = new String(Files.readAllBytes(Paths.get(path)), Charset.defaultCharset());
+            Program program = compiler.recompile(source);
+            System.err.println(compiler.recompileStats());
+            if(program == null) System.exit(65);
+
+            LoxEngine engine = new LoxEngine();
+            engine.run(program);
+            if(engine.hadRuntimeError()) System.exit(70);
         }
     }
 
-    private static void run(String source) {
-        Scanner scanner = new Scanner(source);
-        List <Token> tokens = scanner.scanTokens();
-        Parser parser = new Parser(tokens);
-        List<Stmt> statements = parser.parse();
-
-        if(hadError) return;
+    private static void snapshot(String prelude, String image) throws IOException {
+        LoxEngine engine = new LoxEngine();
+        engine.runFile(Paths.get(prelude));
 
-        Resolver resolver = new Resolver(interpreter);
-        resolver.resolve(statements);
+        if(engine.hadError()) System.exit(65);
+        if(engine.hadRuntimeError()) System.exit(70);
 
-        if(hadError) return;
-
-        interpreter.interpret(statements);
+        try {
+            engine.saveSnapshot(Paths.get(image));
+        } catch (IOException error) {
+            System.err.println(error.getMessage());
+            System.exit(70);
+        }
     }
 
-    private static void runRepl(String source) {
-        Scanner scanner = new Scanner(source);
-        List<Token> tokens = scanner.scanTokens();
-        
-        // try to parse as an expression (with error suppression)
-        suppressErrors = true;
-        Parser parser = new Parser(tokens);
-        Expr expression = parser.parseAsExpression();
-        suppressErrors = false;
-        
-        if (expression != null && !hadError) {
-            // parsed as an expression
-            Object result = interpreter.interpretExpression(expression);
-            if (result != null) {
-                System.out.println(interpreter.stringify(result));
-            }
-        } else {
-            // parsed as a statement
-            hadError = false;
-            scanner = new Scanner(source);
-            tokens = scanner.scanTokens();
-            parser = new Parser(tokens);
-            List<Stmt> statements = parser.parse();
-
-            if(hadError) return;
-
-            interpreter.interpret(statements);
+    private static void restore(LoxEngine engine, String image) {
+        try {
+            engine.restoreSnapshot(Paths.get(image));
+        } catch (IOException error) {
+            System.err.println(error.getMessage());
+            System.exit(65);
         }
     }
 
-    static void error(int line, String message) {
-        report(line, "", message);
-    }
+    private static void runBatch(String[] args) throws IOException {
+        int jobs = Runtime.getRuntime().availableProcessors();
+        if(args.length == 4 && args[2].equals("--jobs")) {
+            jobs = parseJobs(args[3]);
+        } else if(args.length != 2) {
+            jobs = 0;
+        }
+        if(jobs < 1) {
+            System.out.println("Usage: jlox --batch <directory|manifest> [--jobs N]");
+            System.exit(64);
+        }
 
-    static void runtimeError(RuntimeError error) {
-        System.err.println(error.getMessage() + "\n[line " + error.token.line + "]");
-        hadRuntimeError = true;
+        LoxBatch batch = new LoxBatch(LoxBatch.scriptsIn(Paths.get(args[1])), jobs);
+        try {
+            System.exit(batch.run(System.out));
+        } catch (InterruptedException error) {
+            System.exit(70);
+        }
     }
 
-    private static void report(int line, String where, String message) {
-        if (!suppressErrors) {
-            System.err.println("[line " + line + "] Error" + where + ": " + message);
+    // The worker count, or 0 if it isn't a positive integer.
+    private static int parseJobs(String jobs) {
+        try {
+            return Math.max(Integer.parseInt(jobs), 0);
+        } catch (NumberFormatException error) {
+            return 0;
         }
-        hadError = true;
     }
 
-    static void error(Token token, String message) {
-        if(token.type == TokenType.EOF) {
-            report(token.line, " at end", message);
-        } else {
-            report(token.line, " at '" + token.lexeme + "'", message);
+    private static void runPrompt() throws IOException {
+        InputStreamReader input = new InputStreamReader(System.in);
+        BufferedReader reader = new BufferedReader(input);
+        LoxEngine engine = new LoxEngine();
+
+        for(;;) {
+            System.out.print("> ");
+            String line = reader.readLine();
+            if(line == null) break;
+            engine.runRepl(line);
+            engine.resetErrors();
         }
     }
-}
\ No newline at end of file
+}
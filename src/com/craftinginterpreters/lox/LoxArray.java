@@ -0,0 +1,245 @@
+package com.craftinginterpreters.lox;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+
+// A growable array, made by '[a, b, c]' literals or the 'array' native and
+// indexed with 'a[i]'. While every element is a number the elements live
+// unboxed in a double[]; the first store of anything else converts it to an
+// Object[] for good. Not synchronized: tasks that share an array have to
+// order their writes themselves.
+class LoxArray {
+    // the arrays and maps being printed on each thread
+    private static final ThreadLocal<Set<Object>> PRINTING =
+        ThreadLocal.withInitial(() -> Collections.newSetFromMap(new IdentityHashMap<>()));
+
+    // exactly one of these is in use
+    private double[] numbers;
+    private Object[] objects;
+    private int size;
+
+    private LoxArray(double[] numbers, Object[] objects, int size) {
+        this.numbers = numbers;
+        this.objects = objects;
+        this.size = size;
+    }
+
+    static LoxArray ofNumbers(double[] numbers, int size) {
+        return new LoxArray(numbers, null, size);
+    }
+
+    // Takes ownership of values; only the first size of them are used.
+    static LoxArray of(Object[] values, int size) {
+        for (int i = 0; i < size; ++i) {
+            if (!(values[i] instanceof Double)) return new LoxArray(null, values, size);
+        }
+
+        double[] numbers = new double[Math.max(size, 8)];
+        for (int i = 0; i < size; ++i) {
+            numbers[i] = (Double)values[i];
+        }
+        return new LoxArray(numbers, null, size);
+    }
+
+    static LoxArray nils(int size) {
+        return new LoxArray(null, new Object[Math.max(size, 8)], size);
+    }
+
+    int size() {
+        return size;
+    }
+
+    boolean isNumeric() {
+        return numbers != null;
+    }
+
+    // The backing storage of a numeric array; valid until the next store.
+    double[] numbers() {
+        return numbers;
+    }
+
+    Object get(int index) {
+        if (numbers != null) return numbers[index];
+        return objects[index];
+    }
+
+    void set(int index, Object value) {
+        if (numbers != null) {
+            if (value instanceof Double) {
+                numbers[index] = (Double)value;
+                return;
+            }
+            box();
+        }
+        objects[index] = value;
+    }
+
+    void append(Object value) {
+        // an empty array, e.g. from array(0), holds numbers unboxed again
+        if (size == 0 && objects != null && value instanceof Double) {
+            numbers = new double[objects.length];
+            objects = null;
+        }
+        if (numbers != null && value instanceof Double) {
+            if (size == numbers.length) numbers = Arrays.copyOf(numbers, grow(size + 1));
+            numbers[size++] = (Double)value;
+            return;
+        }
+
+        if (numbers != null) box();
+        if (size == objects.length) objects = Arrays.copyOf(objects, grow(size + 1));
+        objects[size++] = value;
+    }
+
+    void appendAll(LoxArray other) {
+        int count = other.size;
+        if (numbers != null && other.numbers != null) {
+            if (size + count > numbers.length) numbers = Arrays.copyOf(numbers, grow(size + count));
+            System.arraycopy(other.numbers, 0, numbers, size, count);
+            size += count;
+            return;
+        }
+
+        if (numbers != null) box();
+        if (size + count > objects.length) objects = Arrays.copyOf(objects, grow(size + count));
+        if (other.objects != null) {
+            System.arraycopy(other.objects, 0, objects, size, count);
+        } else {
+            for (int i = 0; i < count; ++i) {
+                objects[size + i] = other.numbers[i];
+            }
+        }
+        size += count;
+    }
+
+    // Replaces every element, e.g. when a snapshot is restored.
+    void fill(Object[] values) {
+        LoxArray filled = of(values, values.length);
+        numbers = filled.numbers;
+        objects = filled.objects;
+        size = filled.size;
+    }
+
+    // Indexing from the language, where errors are reported at the bracket.
+    Object get(Token bracket, Object index) {
+        return get(index(bracket, index, size));
+    }
+
+    void set(Token bracket, Object index, Object value) {
+        set(index(bracket, index, size), value);
+    }
+
+    Object get(Token name) {
+        switch (name.lexeme) {
+            case "length":
+                return (double)size;
+            case "get":
+                return new NativeFunction(name.lexeme, 1) {
+                    @Override
+                    public Object call(Interpreter interpreter, List<Object> arguments) {
+                        return get(null, arguments.get(0));
+                    }
+                };
+            case "set":
+                return new NativeFunction(name.lexeme, 2) {
+                    @Override
+                    public Object call(Interpreter interpreter, List<Object> arguments) {
+                        Object value = arguments.get(1);
+                        set(null, arguments.get(0), value);
+                        return value;
+                    }
+                };
+            case "append":
+                return new NativeFunction(name.lexeme, 1) {
+                    @Override
+                    public Object call(Interpreter interpreter, List<Object> arguments) {
+                        append(arguments.get(0));
+                        return null;
+                    }
+                };
+            case "appendAll":
+                return new NativeFunction(name.lexeme, 1) {
+                    @Override
+                    public Object call(Interpreter interpreter, List<Object> arguments) {
+                        Object other = arguments.get(0);
+                        if (!(other instanceof LoxArray)) {
+                            throw new RuntimeError(null, "Can only append all of an array.");
+                        }
+                        appendAll((LoxArray)other);
+                        return null;
+                    }
+                };
+            default:
+                throw new RuntimeError(name, "Undefined property '" + name.lexeme + "'.");
+        }
+    }
+
+    // Checks an index into something of the given size; bracket may be null.
+    static int index(Token bracket, Object index, int size) {
+        if (!(index instanceof Double) || (Double)index % 1 != 0) {
+            throw new RuntimeError(bracket, "Array index must be an integer.");
+        }
+        double value = (Double)index;
+        if (value < 0 || value >= size) {
+            throw new RuntimeError(bracket, "Array index out of range.");
+        }
+        return (int)value;
+    }
+
+    private void box() {
+        objects = new Object[Math.max(numbers.length, 8)];
+        for (int i = 0; i < size; ++i) {
+            objects[i] = numbers[i];
+        }
+        numbers = null;
+    }
+
+    private static int grow(int needed) {
+        return Math.max(needed, Math.max(8, needed + (needed >> 1)));
+    }
+
+    @Override
+    public String toString() {
+        // only an array of objects can contain itself
+        boolean guarded = numbers == null;
+        if (guarded && !startPrinting(this)) return "[...]";
+        try {
+            StringBuilder builder = new StringBuilder("[");
+            for (int i = 0; i < size; ++i) {
+                if (i > 0) builder.append(", ");
+                if (numbers != null) {
+                    Numbers.append(builder, numbers[i]);
+                } else {
+                    appendElement(builder, objects[i]);
+                }
+            }
+            return builder.append("]").toString();
+        } finally {
+            if (guarded) stopPrinting(this);
+        }
+    }
+
+    // Marks a collection as being printed on this thread. False if it already
+    // is, meaning it contains itself and should print as [...] or {...}.
+    static boolean startPrinting(Object collection) {
+        return PRINTING.get().add(collection);
+    }
+
+    static void stopPrinting(Object collection) {
+        PRINTING.get().remove(collection);
+    }
+
+    // How a value prints inside a collection.
+    static void appendElement(StringBuilder builder, Object value) {
+        if (value == null) {
+            builder.append("nil");
+        } else if (value instanceof Double) {
+            Numbers.append(builder, (double)value);
+        } else {
+            builder.append(value);
+        }
+    }
+}
@@ -0,0 +1,170 @@
+package com.craftinginterpreters.lox;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+// Runs many scripts in one JVM on a fixed pool of workers. Each script gets
+// its own LoxEngine with in-memory stdout and stderr; when all are done a
+// JSON summary with every script's exit code, timing and output is printed.
+class LoxBatch {
+    private static class Result {
+        final Path path;
+        final int exit;
+        final long nanos;
+        final String stdout;
+        final String stderr;
+
+        Result(Path path, int exit, long nanos, String stdout, String stderr) {
+            this.path = path;
+            this.exit = exit;
+            this.nanos = nanos;
+            this.stdout = stdout;
+            this.stderr = stderr;
+        }
+    }
+
+    private final List<Path> scripts;
+    private final int jobs;
+
+    LoxBatch(List<Path> scripts, int jobs) {
+        this.scripts = scripts;
+        this.jobs = jobs;
+    }
+
+    // A directory means every .lox file directly inside it. Anything else is a
+    // manifest: one script path per line, relative to the manifest, with blank
+    // lines and lines starting with '#' ignored.
+    static List<Path> scriptsIn(Path source) throws IOException {
+        if (Files.isDirectory(source)) {
+            try (Stream<Path> files = Files.list(source)) {
+                return files
+                    .filter(file -> file.toString().endsWith(".lox") && Files.isRegularFile(file))
+                    .sorted()
+                    .collect(Collectors.toList());
+            }
+        }
+
+        List<Path> scripts = new ArrayList<>();
+        Path directory = source.toAbsolutePath().getParent();
+        for (String line : Files.readAllLines(source)) {
+            line = line.trim();
+            if (line.isEmpty() || line.startsWith("#")) continue;
+            scripts.add(directory.resolve(line).normalize());
+        }
+        return scripts;
+    }
+
+    // Prints the summary and returns the highest exit code of any script.
+    int run(PrintStream summary) throws InterruptedException {
+        ExecutorService workers = Executors.newFixedThreadPool(jobs);
+        long start = System.nanoTime();
+        List<Future<Result>> futures = new ArrayList<>(scripts.size());
+        for (Path script : scripts) {
+            futures.add(workers.submit(() -> runScript(script)));
+        }
+
+        List<Result> results = new ArrayList<>(futures.size());
+        try {
+            for (Future<Result> future : futures) {
+                results.add(future.get());
+            }
+        } catch (ExecutionException error) {
+            throw new IllegalStateException(error.getCause());
+        } finally {
+            workers.shutdown();
+        }
+        long wall = System.nanoTime() - start;
+
+        int failed = 0;
+        int worst = 0;
+        for (Result result : results) {
+            if (result.exit != 0) failed++;
+            worst = Math.max(worst, result.exit);
+        }
+
+        StringBuilder json = new StringBuilder();
+        json.append("{\"jobs\": ").append(jobs)
+            .append(", \"total\": ").append(results.size())
+            .append(", \"failed\": ").append(failed)
+            .append(", \"wallMillis\": ").append(millis(wall))
+            .append(", \"scripts\": [");
+        for (int i = 0; i < results.size(); ++i) {
+            Result result = results.get(i);
+            json.append(i == 0 ? "\n" : ",\n");
+            json.append("  {\"path\": ").append(quote(result.path.toString()))
+                .append(", \"exit\": ").append(result.exit)
+                .append(", \"millis\": ").append(millis(result.nanos))
+                .append(", \"stdout\": ").append(quote(result.stdout))
+                .append(", \"stderr\": ").append(quote(result.stderr))
+                .append("}");
+        }
+        json.append("\n]}");
+        summary.println(json);
+        summary.flush();
+        return worst;
+    }
+
+    private static Result runScript(Path script) {
+        OutputSink stdout = OutputSink.memory();
+        ByteArrayOutputStream stderr = new ByteArrayOutputStream();
+        LoxEngine engine = new LoxEngine(stdout, new PrintStream(stderr, true, StandardCharsets.UTF_8));
+
+        long start = System.nanoTime();
+        int exit = 0;
+        try {
+            engine.runFile(script);
+            if (engine.hadError()) exit = 65;
+            else if (engine.hadRuntimeError()) exit = 70;
+        } catch (IOException error) {
+            exit = 66;
+            stderr.writeBytes(("Could not read " + script + ".\n").getBytes(StandardCharsets.UTF_8));
+        } catch (Throwable error) {
+            // one script blowing up the interpreter (a stack overflow, say)
+            // fails only that script; the rest still get their summary
+            exit = 70;
+            stderr.writeBytes((error + "\n").getBytes(StandardCharsets.UTF_8));
+        }
+        long nanos = System.nanoTime() - start;
+
+        return new Result(script, exit, nanos, stdout.contents(), stderr.toString(StandardCharsets.UTF_8));
+    }
+
+    private static String millis(long nanos) {
+        return String.format(Locale.ROOT, "%.3f", nanos / 1e6);
+    }
+
+    private static String quote(String text) {
+        StringBuilder quoted = new StringBuilder(text.length() + 2);
+        quoted.append('"');
+        for (int i = 0; i < text.length(); ++i) {
+            char c = text.charAt(i);
+            switch (c) {
+                case '"': quoted.append("\\\""); break;
+                case '\\': quoted.append("\\\\"); break;
+                case '\n': quoted.append("\\n"); break;
+                case '\r': quoted.append("\\r"); break;
+                case '\t': quoted.append("\\t"); break;
+                default:
+                    if (c < 0x20) {
+                        quoted.append(String.format("\\u%04x", (int)c));
+                    } else {
+                        quoted.append(c);
+                    }
+            }
+        }
+        return quoted.append('"').toString();
+    }
+}
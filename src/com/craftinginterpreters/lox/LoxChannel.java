@@ -0,0 +1,129 @@
+package com.craftinginterpreters.lox;
+
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.BooleanSupplier;
+
+// Bounded FIFO queue between tasks, made by the 'channel' native. send()
+// blocks while the buffer is full and receive() while it is empty. After
+// close(), send() is an error and receive() drains what is left, then
+// returns nil.
+class LoxChannel {
+    // what receive() returns once the channel is closed and drained; nil
+    // can be sent like any other value
+    static final Object CLOSED = new Object();
+
+    private final Object[] buffer;
+    private int head = 0;
+    private int count = 0;
+    private boolean closed = false;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notFull = lock.newCondition();
+    private final Condition notEmpty = lock.newCondition();
+
+    LoxChannel(int capacity) {
+        this.buffer = new Object[capacity];
+    }
+
+    Object get(Token name) {
+        switch (name.lexeme) {
+            case "send":
+                return new NativeFunction(name.lexeme, 1) {
+                    @Override
+                    public Object call(Interpreter interpreter, List<Object> arguments) {
+                        send(name, arguments.get(0));
+                        return null;
+                    }
+                };
+            case "receive":
+                return new NativeFunction(name.lexeme, 0) {
+                    @Override
+                    public Object call(Interpreter interpreter, List<Object> arguments) {
+                        Object value = receive();
+                        return value == CLOSED ? null : value;
+                    }
+                };
+            case "close":
+                return new NativeFunction(name.lexeme, 0) {
+                    @Override
+                    public Object call(Interpreter interpreter, List<Object> arguments) {
+                        close();
+                        return null;
+                    }
+                };
+            default:
+                throw new RuntimeError(name, "Undefined property '" + name.lexeme + "'.");
+        }
+    }
+
+    private void send(Token name, Object value) {
+        lock.lock();
+        try {
+            block(notFull, () -> count < buffer.length || closed);
+            if (closed) throw new RuntimeError(name, "Send on a closed channel.");
+
+            buffer[(head + count) % buffer.length] = value;
+            count++;
+            notEmpty.signal();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    Object receive() {
+        lock.lock();
+        try {
+            block(notEmpty, () -> count > 0 || closed);
+            if (count == 0) return CLOSED;
+
+            Object value = buffer[head];
+            buffer[head] = null;
+            head = (head + 1) % buffer.length;
+            count--;
+            notFull.signal();
+            return value;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void close() {
+        lock.lock();
+        try {
+            closed = true;
+            notFull.signalAll();
+            notEmpty.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Waits on condition (with the lock held) until ready. On a ForkJoinPool
+    // worker the pool is told, so it can start another thread meanwhile.
+    private static void block(Condition condition, BooleanSupplier ready) {
+        try {
+            ForkJoinPool.managedBlock(new ForkJoinPool.ManagedBlocker() {
+                @Override
+                public boolean block() throws InterruptedException {
+                    if (!ready.getAsBoolean()) condition.await();
+                    return ready.getAsBoolean();
+                }
+
+                @Override
+                public boolean isReleasable() {
+                    return ready.getAsBoolean();
+                }
+            });
+        } catch (InterruptedException error) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeError(null, "Interrupted while waiting on a channel.");
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "<channel>";
+    }
+}
@@ -6,8 +6,8 @@ import java.util.Map;
 class LoxClass implements LoxCallable {
     final String name;
     final LoxClass superclass;
-    private final Map<String, LoxFunction> methods;
-    private final Map<String, LoxFunction> staticMethods;
+    final Map<String, LoxFunction> methods;
+    final Map<String, LoxFunction> staticMethods;
     
     LoxClass(String name, LoxClass superclass, Map<String, LoxFunction> methods, Map<String, LoxFunction> staticMethods) {
         this.superclass = superclass;
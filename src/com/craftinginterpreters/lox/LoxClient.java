@@ -0,0 +1,55 @@
+package com.craftinginterpreters.lox;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+// Thin client for LoxServer: sends the working directory and arguments,
+// copies the script's stdout and stderr through and returns its exit code.
+class LoxClient {
+    static int run(Path socket, String[] args) {
+        try (SocketChannel channel = SocketChannel.open(UnixDomainSocketAddress.of(socket))) {
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(channel)));
+            DataInputStream in = new DataInputStream(Channels.newInputStream(channel));
+            LoxServer.writeRequest(out, Paths.get("").toAbsolutePath(), args);
+
+            for (;;) {
+                byte kind = in.readByte();
+                byte[] payload = new byte[in.readInt()];
+                in.readFully(payload);
+
+                switch (kind) {
+                    case LoxServer.STDOUT:
+                        System.out.write(payload);
+                        break;
+                    case LoxServer.STDERR:
+                        System.out.flush();
+                        System.err.write(payload);
+                        System.err.flush();
+                        break;
+                    case LoxServer.EXIT:
+                        System.out.flush();
+                        return new DataInputStream(new ByteArrayInputStream(payload)).readInt();
+                    default:
+                        System.err.println("Unexpected frame from server.");
+                        return 70;
+                }
+            }
+        } catch (EOFException error) {
+            System.out.flush();
+            System.err.println("Server closed the connection.");
+            return 70;
+        } catch (IOException error) {
+            System.err.println("Could not connect to " + socket + ": " + error.getMessage());
+            return 69;
+        }
+    }
+}
@@ -0,0 +1,220 @@
+package com.craftinginterpreters.lox;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+
+// One independent Lox interpreter: its own globals, modules, output sink and
+// error state. Engines share nothing but compiled Programs, so separate
+// threads can each drive their own engine concurrently. A single engine is
+// not thread-safe.
+public class LoxEngine {
+    private final Interpreter interpreter;
+    private final ErrorReporter errors;
+    private IncrementalCompiler incremental;
+
+    public LoxEngine() {
+        this(OutputSink.stdout(), System.err);
+    }
+
+    public LoxEngine(OutputSink output, PrintStream err) {
+        this.errors = new ErrorReporter(err);
+        this.interpreter = new Interpreter(output, errors);
+    }
+
+    // Scans, parses and resolves source. Returns null if there were errors.
+    // The result can be run by any engine, including several at once.
+    public Program compile(String source) {
+        List<Stmt> statements = compileStatements(source);
+        return statements == null ? null : new Program(statements);
+    }
+
+    // Compiles a script read from path, front-ending everything it imports in
+    // parallel. Wherever the result is run, imports resolve relative to path.
+    public Program compile(String source, Path path) {
+        path = path.toAbsolutePath();
+        List<Stmt> statements = interpreter.modules.compile(path, source);
+        return statements == null ? null : new Program(statements, path);
+    }
+
+    // Compiles a new version of a source that was compiled with this method
+    // before, reusing every top-level declaration that did not change.
+    public Program recompile(String source) {
+        if (incremental == null) incremental = new IncrementalCompiler(errors);
+        List<Stmt> statements = incremental.compile(source);
+        return statements == null ? null : new Program(statements);
+    }
+
+    // How many declarations the last recompile() reused and compiled.
+    String recompileStats() {
+        return incremental == null ? new IncrementalCompiler(errors).stats() : incremental.stats();
+    }
+
+    public void run(Program program) {
+        if (program.path != null) {
+            interpreter.modules.directory = program.path.getParent();
+            interpreter.modules.enter(program.path);
+        }
+        try {
+            interpreter.interpret(program.statements);
+        } finally {
+            if (program.path != null) interpreter.modules.leave(program.path);
+            interpreter.output.flush();
+        }
+    }
+
+    public void run(String source) {
+        Program program = compile(source);
+        if (program != null) run(program);
+    }
+
+    public void runFile(Path path) throws IOException {
+        byte[] bytes = Files.readAllBytes(path);
+        String source = new String(bytes, Charset.defaultCharset());
+        interpreter.modules.directory = path.toAbsolutePath().getParent();
+
+        ScriptCache cache = ScriptCache.fromSystem();
+        interpreter.modules.enter(path);
+        try {
+            if (cache != null) {
+                runCached(source, cache);
+            } else if (Boolean.getBoolean("lox.flatAst")) {
+                runFlat(source);
+            } else {
+                runModule(path, source);
+            }
+        } finally {
+            interpreter.modules.leave(path);
+            interpreter.output.flush();
+        }
+    }
+
+    // Runs one line typed at the prompt. A lone expression has its value echoed.
+    public void runRepl(String source) {
+        Scanner scanner = new Scanner(source, errors);
+        List<Token> tokens = scanner.scanTokens();
+        Parser parser = new Parser(tokens, errors);
+        List<Stmt> statements = parser.parseRepl();
+
+        if (errors.hadError) return;
+
+        Resolver resolver = new Resolver(errors);
+        resolver.resolve(statements);
+
+        if (errors.hadError) return;
+
+        try {
+            if (statements.size() == 1 && statements.get(0) instanceof Stmt.Expression) {
+                Object result = interpreter.interpretExpression(((Stmt.Expression)statements.get(0)).expression);
+                if (result != null) {
+                    interpreter.output.println(interpreter.stringify(result));
+                }
+            } else {
+                interpreter.interpret(statements);
+            }
+        } finally {
+            interpreter.output.flush();
+        }
+    }
+
+    // Writes the globals and everything they reach (functions, classes,
+    // instances, modules) to an image that restoreSnapshot() loads instead of
+    // re-running the code that built them.
+    public void saveSnapshot(Path image) throws IOException {
+        byte[] bytes = new SnapshotWriter(interpreter).write();
+        Files.write(image, bytes);
+    }
+
+    // Defines the snapshot's globals in this engine. Fails if the image was
+    // written by a different build of the interpreter.
+    public void restoreSnapshot(Path image) throws IOException {
+        try (FileChannel channel = FileChannel.open(image, StandardOpenOption.READ)) {
+            ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            new SnapshotReader(buffer, interpreter).read();
+        } catch (SnapshotReader.FormatError error) {
+            throw new IOException(image + ": " + error.getMessage());
+        }
+    }
+
+    // The global's value, or null for nil, an uninitialized variable or a
+    // name that isn't defined.
+    public Object getGlobal(String name) {
+        Object value = interpreter.globals.getAt(0, name);
+        if (value == Environment.UNINITIALIZED || value == Environment.NIL) return null;
+        return LoxRope.flatten(value);
+    }
+
+    public void defineGlobal(String name, Object value) {
+        interpreter.globals.define(name, value);
+    }
+
+    public OutputSink output() {
+        return interpreter.output;
+    }
+
+    public boolean hadError() {
+        return errors.hadError;
+    }
+
+    public boolean hadRuntimeError() {
+        return errors.hadRuntimeError;
+    }
+
+    public void resetErrors() {
+        errors.reset();
+    }
+
+    private void runModule(Path path, String source) {
+        List<Stmt> statements = interpreter.modules.compile(path, source);
+        if (statements == null) return;
+
+        interpreter.interpret(statements);
+    }
+
+    private void runCached(String source, ScriptCache cache) {
+        List<Stmt> statements = cache.load(source);
+        if (statements == null) {
+            long start = System.nanoTime();
+            statements = compileStatements(source);
+            cache.recordCompile(System.nanoTime() - start);
+            if (statements == null) return;
+
+            cache.store(source, statements);
+        }
+
+        if (Boolean.getBoolean("lox.cache.stats")) {
+            System.err.println(cache.stats());
+        }
+
+        interpreter.interpret(statements);
+    }
+
+    private void runFlat(String source) {
+        List<Stmt> statements = compileStatements(source);
+        if (statements == null) return;
+
+        interpreter.interpret(FlatAst.encode(statements));
+    }
+
+    private List<Stmt> compileStatements(String source) {
+        Scanner scanner = new Scanner(source, errors);
+        List<Token> tokens = scanner.scanTokens();
+        Parser parser = new Parser(tokens, errors);
+        List<Stmt> statements = parser.parse();
+
+        if (errors.hadError) return null;
+
+        Resolver resolver = new Resolver(errors);
+        resolver.resolve(statements);
+
+        if (errors.hadError) return null;
+
+        return statements;
+    }
+}
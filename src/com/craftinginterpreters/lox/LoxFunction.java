@@ -3,14 +3,16 @@ package com.craftinginterpreters.lox;
 import java.util.List;
 
 class LoxFunction implements LoxCallable {
-    private final Stmt.Function declaration;
-    private final Environment closure;
-    private final boolean isInitializer;
+    final Stmt.Function declaration;
+    final Environment closure;
+    final Environment module;
+    final boolean isInitializer;
     private final boolean isGetter;
 
-    LoxFunction(Stmt.Function declaration, Environment closure, boolean isInitializer) {
+    LoxFunction(Stmt.Function declaration, Environment closure, Environment module, boolean isInitializer) {
         this.declaration = declaration;
         this.closure = closure;
+        this.module = module;
         this.isInitializer = isInitializer;
         this.isGetter = declaration.isGetter;
     }
@@ -18,7 +20,7 @@ class LoxFunction implements LoxCallable {
     LoxFunction bind(Object instance) {
         Environment environment = new Environment(closure);
         environment.define("this", instance);
-        return new LoxFunction(declaration, environment, isInitializer);
+        return new LoxFunction(declaration, environment, module, isInitializer);
     }
 
     boolean isGetter() { return isGetter; }
@@ -30,11 +32,17 @@ class LoxFunction implements LoxCallable {
             environment.define(declaration.params.get(i).lexeme, arguments.get(i));
         }
 
+        // a generator's body runs as its values are asked for
+        if(declaration.isGenerator) return new LoxGenerator(declaration, environment, module);
+
         try {
-            interpreter.executeBlock(declaration.body, environment);
+            interpreter.executeBlock(declaration.body, environment, module);
         } catch(Return returnValue) {
             if(isInitializer) return closure.getAt(0, "this");
             return returnValue.value;
+        } catch(RuntimeError error) {
+            if(interpreter.tracing()) error.leaving(declaration.name.lexeme);
+            throw error;
         }
 
         if(isInitializer) return closure.getAt(0, "this");
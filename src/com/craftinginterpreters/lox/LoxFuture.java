@@ -0,0 +1,35 @@
+package com.craftinginterpreters.lox;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
+// The result of a 'spawn'. 'await' blocks until the task finishes and either
+// returns its value or rethrows the RuntimeError that ended it.
+class LoxFuture {
+    private final CompletableFuture<Object> result = new CompletableFuture<>();
+    // set once someone awaits, so failures nobody saw are reported at exit
+    volatile boolean observed = false;
+
+    void complete(Object value) {
+        result.complete(value);
+    }
+
+    void fail(RuntimeError error) {
+        result.completeExceptionally(error);
+    }
+
+    Object await() {
+        observed = true;
+        try {
+            // inside a ForkJoinPool this blocks through managedBlock, so the pool compensates
+            return result.join();
+        } catch (CompletionException error) {
+            throw (RuntimeError)error.getCause();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "<future>";
+    }
+}
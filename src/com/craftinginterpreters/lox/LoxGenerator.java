@@ -0,0 +1,310 @@
+package com.craftinginterpreters.lox;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+
+// What calling a 'fun*' function returns. Its body runs as far as the next
+// 'yield' each time next() is called, then stops there until the next call.
+//
+// A suspended body is a stack of frames: the block statements still to run,
+// the while and for-in loops still going and the try bodies that errors
+// unwind to, each with its scope. Only the statements on the way to a yield
+// are walked here; everything else is handed to the interpreter as usual,
+// so resuming needs no thread, no exception and no copy of any scope. yield
+// is a statement for the same reason: the interpreter never has to stop in
+// the middle of an expression.
+//
+// A generator is also a sequence, but a single-pass one: map, filter, take
+// and the rest pull from where the last pull stopped.
+class LoxGenerator extends LoxSequence {
+    private static class Frame {
+        final Environment environment;
+        // a block runs statements in order, a while loop re-tests its
+        // condition and a for-in loop pulls from its cursor
+        final List<Stmt> statements;
+        final Stmt.While loop;
+        final Stmt.ForIn forIn;
+        final Cursor cursor;
+        // set when the statements are the body of a try
+        Stmt.Try attempt = null;
+        int next = 0;
+
+        Frame(Environment environment, List<Stmt> statements, Stmt.While loop, Stmt.ForIn forIn, Cursor cursor) {
+            this.environment = environment;
+            this.statements = statements;
+            this.loop = loop;
+            this.forIn = forIn;
+            this.cursor = cursor;
+        }
+
+        boolean isLoop() {
+            return loop != null || forIn != null;
+        }
+    }
+
+    private final Stmt.Function declaration;
+    private final Environment module;
+    private final Set<Stmt> yielding;
+    private final ArrayList<Frame> frames = new ArrayList<>();
+    // the try bodies among the frames, counted in the running interpreter's
+    // try depth while the body runs so errors they catch skip the backtrace
+    private int attempts = 0;
+    // the interpreter resuming the body, null while suspended
+    private Interpreter runner = null;
+
+    LoxGenerator(Stmt.Function declaration, Environment environment, Environment module) {
+        this.declaration = declaration;
+        this.module = module;
+        Set<Stmt> yielding = declaration.yielding;
+        if (yielding == null) declaration.yielding = yielding = findYielding(declaration);
+        this.yielding = yielding;
+        frames.add(new Frame(environment, declaration.body, null, null, null));
+    }
+
+    boolean isDone() {
+        return frames.isEmpty();
+    }
+
+    // Runs the body to its next yield and returns the value, or DONE once
+    // the body has finished.
+    synchronized Object resume(Interpreter interpreter) {
+        if (runner != null) throw new RuntimeError(null, "Generator is already running.");
+        runner = interpreter;
+        interpreter.trying(attempts);
+        try {
+            while (!frames.isEmpty()) {
+                Object value;
+                try {
+                    value = step(interpreter);
+                } catch (Interpreter.BreakException error) {
+                    if (!breakOut()) throw error;
+                    continue;
+                } catch (RuntimeError error) {
+                    if (!catchIn(error)) throw error;
+                    continue;
+                }
+                if (value != DONE) return value;
+            }
+            return DONE;
+        } catch (Return done) {
+            clear();
+            return DONE;
+        } catch (RuntimeError error) {
+            clear();
+            if (interpreter.tracing()) error.leaving(declaration.name.lexeme);
+            throw error;
+        } catch (RuntimeException error) {
+            clear();
+            throw error;
+        } finally {
+            interpreter.trying(-attempts);
+            runner = null;
+        }
+    }
+
+    // Advances the top frame by one statement or loop test. Returns the
+    // value when that reaches a yield and DONE otherwise.
+    private Object step(Interpreter interpreter) {
+        Frame frame = frames.get(frames.size() - 1);
+        if (frame.loop != null) {
+            if (!Interpreter.isTruthy(interpreter.evaluate(frame.loop.condition, frame.environment, module))) {
+                pop();
+                return DONE;
+            }
+            return run(interpreter, frame.loop.body, frame.environment);
+        }
+
+        if (frame.forIn != null) {
+            Object value = frame.cursor.next();
+            if (value == DONE) {
+                pop();
+                return DONE;
+            }
+            Environment step = new Environment(frame.environment);
+            step.define(frame.forIn.name.lexeme, value);
+            return run(interpreter, frame.forIn.body, step);
+        }
+
+        if (frame.next == frame.statements.size()) {
+            pop();
+            return DONE;
+        }
+        return run(interpreter, frame.statements.get(frame.next++), frame.environment);
+    }
+
+    private Object run(Interpreter interpreter, Stmt stmt, Environment environment) {
+        if (!yielding.contains(stmt)) {
+            interpreter.execute(stmt, environment, module);
+            return DONE;
+        }
+
+        if (stmt instanceof Stmt.Yield) {
+            Expr value = ((Stmt.Yield)stmt).value;
+            return value == null ? null : interpreter.evaluate(value, environment, module);
+        }
+        if (stmt instanceof Stmt.Block) {
+            frames.add(new Frame(new Environment(environment), ((Stmt.Block)stmt).statements, null, null, null));
+            return DONE;
+        }
+        if (stmt instanceof Stmt.While) {
+            frames.add(new Frame(environment, null, (Stmt.While)stmt, null, null));
+            return DONE;
+        }
+        if (stmt instanceof Stmt.Try) {
+            Frame body = new Frame(new Environment(environment), ((Stmt.Try)stmt).body, null, null, null);
+            body.attempt = (Stmt.Try)stmt;
+            frames.add(body);
+            attempts++;
+            interpreter.trying(1);
+            return DONE;
+        }
+        if (stmt instanceof Stmt.ForIn) {
+            Stmt.ForIn forIn = (Stmt.ForIn)stmt;
+            Cursor cursor = over(interpreter.evaluate(forIn.iterable, environment, module), interpreter, forIn.name);
+            frames.add(new Frame(environment, null, null, forIn, cursor));
+            return DONE;
+        }
+
+        if (stmt instanceof Stmt.Match) {
+            Stmt.Match match = (Stmt.Match)stmt;
+            Object subject = interpreter.evaluate(match.subject, environment, module);
+            Stmt arm = MatchTable.select(match, subject, interpreter, environment, module);
+            return arm == null ? DONE : run(interpreter, arm, environment);
+        }
+        if (stmt instanceof Stmt.Case) {
+            return run(interpreter, ((Stmt.Case)stmt).body, environment);
+        }
+
+        Stmt.If branch = (Stmt.If)stmt;
+        Stmt taken = Interpreter.isTruthy(interpreter.evaluate(branch.condition, environment, module))
+            ? branch.thenBranch : branch.elseBranch;
+        return taken == null ? DONE : run(interpreter, taken, environment);
+    }
+
+    // Leaves the innermost loop being walked here; false if there is none.
+    private boolean breakOut() {
+        for (int i = frames.size() - 1; i >= 0; --i) {
+            if (frames.get(i).isLoop()) {
+                while (frames.size() > i) pop();
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // Unwinds to the innermost try being walked here and starts its catch
+    // block; false if there is none.
+    private boolean catchIn(RuntimeError error) {
+        for (int i = frames.size() - 1; i >= 0; --i) {
+            Frame frame = frames.get(i);
+            if (frame.attempt == null) continue;
+            while (frames.size() > i) pop();
+
+            Environment handler = new Environment(frame.environment.enclosing);
+            handler.define(frame.attempt.name.lexeme, error.value);
+            frames.add(new Frame(handler, frame.attempt.handler, null, null, null));
+            return true;
+        }
+        return false;
+    }
+
+    private void pop() {
+        Frame frame = frames.remove(frames.size() - 1);
+        if (frame.attempt != null) {
+            attempts--;
+            runner.trying(-1);
+        }
+    }
+
+    private void clear() {
+        runner.trying(-attempts);
+        attempts = 0;
+        frames.clear();
+    }
+
+
+    // The statements of a generator function that contain a yield. Never
+    // changed once made, so one set can be shared by every thread.
+    static Set<Stmt> findYielding(Stmt.Function function) {
+        Set<Stmt> yielding = Collections.newSetFromMap(new IdentityHashMap<>());
+        for (Stmt stmt : function.body) {
+            findYielding(stmt, yielding);
+        }
+        return Collections.unmodifiableSet(yielding);
+    }
+
+    // Adds stmt and everything inside it that leads to a yield. Nested
+    // functions and classes are left alone: their yields are their own.
+    private static boolean findYielding(Stmt stmt, Set<Stmt> yielding) {
+        boolean yields = false;
+        if (stmt instanceof Stmt.Yield) {
+            yields = true;
+        } else if (stmt instanceof Stmt.Block) {
+            for (Stmt inner : ((Stmt.Block)stmt).statements) {
+                yields |= findYielding(inner, yielding);
+            }
+        } else if (stmt instanceof Stmt.While) {
+            yields = findYielding(((Stmt.While)stmt).body, yielding);
+        } else if (stmt instanceof Stmt.ForIn) {
+            yields = findYielding(((Stmt.ForIn)stmt).body, yielding);
+        } else if (stmt instanceof Stmt.Try) {
+            Stmt.Try attempt = (Stmt.Try)stmt;
+            for (Stmt inner : attempt.body) {
+                yields |= findYielding(inner, yielding);
+            }
+            for (Stmt inner : attempt.handler) {
+                yields |= findYielding(inner, yielding);
+            }
+        } else if (stmt instanceof Stmt.Match) {
+            Stmt.Match match = (Stmt.Match)stmt;
+            for (Stmt.Case arm : match.cases) {
+                yields |= findYielding(arm, yielding);
+            }
+            if (match.otherwise != null) yields |= findYielding(match.otherwise, yielding);
+        } else if (stmt instanceof Stmt.Case) {
+            yields = findYielding(((Stmt.Case)stmt).body, yielding);
+        } else if (stmt instanceof Stmt.If) {
+            Stmt.If branch = (Stmt.If)stmt;
+            yields = findYielding(branch.thenBranch, yielding);
+            if (branch.elseBranch != null) yields |= findYielding(branch.elseBranch, yielding);
+        }
+        if (yields) yielding.add(stmt);
+        return yields;
+    }
+
+    @Override
+    Cursor open(Interpreter interpreter) {
+        return new Cursor() {
+            @Override
+            Object next() {
+                return resume(interpreter);
+            }
+        };
+    }
+
+    @Override
+    Object get(Token name) {
+        switch (name.lexeme) {
+            case "next":
+                return new NativeFunction(name.lexeme, 0) {
+                    @Override
+                    public Object call(Interpreter interpreter, List<Object> arguments) {
+                        Object value = resume(interpreter);
+                        return value == DONE ? null : value;
+                    }
+                };
+            case "done":
+                return isDone();
+            default:
+                return super.get(name);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "<generator " + declaration.name.lexeme + ">";
+    }
+}
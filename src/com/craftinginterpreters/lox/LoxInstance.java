@@ -1,11 +1,12 @@
 package com.craftinginterpreters.lox;
 
-import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 class LoxInstance {
-    private LoxClass klass;
-    private final Map<String, Object> fields = new HashMap<>();
+    final LoxClass klass;
+    // instances can be shared between tasks; nil is stored as Environment.NIL
+    final Map<String, Object> fields = new ConcurrentHashMap<>();
 
     LoxInstance(LoxClass klass) {
         this.klass = klass;
@@ -17,15 +18,16 @@ class LoxInstance {
     }
 
     Object get(Token name, Interpreter interpreter) {
-        if(fields.containsKey(name.lexeme)) {
-            return fields.get(name.lexeme);
+        Object value = fields.get(name.lexeme);
+        if(value != null) {
+            return value == Environment.NIL ? null : value;
         }
 
         LoxFunction method = klass.findMethod(name.lexeme);
         if (method != null) {
             if (method.isGetter()) {
                 // execute getter and return its value
-                return method.bind(this).call(interpreter, new java.util.ArrayList<>());
+                return interpreter.call(method.bind(this), new java.util.ArrayList<>(), name);
             }
             return method.bind(this);
         }
@@ -34,6 +36,6 @@ class LoxInstance {
     }
 
     void set(Token name, Object value) {
-        fields.put(name.lexeme, value);
+        fields.put(name.lexeme, value == null ? Environment.NIL : value);
     }
 }
@@ -0,0 +1,345 @@
+package com.craftinginterpreters.lox;
+
+import java.util.Arrays;
+import java.util.List;
+
+// A hash map made by the 'map' native and indexed with 'm[key]'. Keys follow
+// Lox equality: numbers by value, strings by contents, and a string that
+// spells a number is the same key as that number (stored as the number).
+// nil and booleans are keys too; anything else is compared by identity.
+//
+// Two open-addressing tables with linear probing and backward-shift
+// deletion: number keys live unboxed as their bits in a long[], everything
+// else in an Object[] with cached hashes. Not synchronized.
+class LoxMap {
+    // never a real key's bits, so it also marks empty number slots
+    static final long NO_NUMBER = Numbers.NOT_A_NUMBER;
+    private static final Object NIL_KEY = new Object();
+    private static final int MIN_CAPACITY = 8;
+
+    private long[] numberKeys = emptyNumbers(MIN_CAPACITY);
+    private Object[] numberValues = new Object[MIN_CAPACITY];
+    private int numberCount = 0;
+
+    private Object[] objectKeys = new Object[MIN_CAPACITY];
+    private int[] objectHashes = new int[MIN_CAPACITY];
+    private Object[] objectValues = new Object[MIN_CAPACITY];
+    private int objectCount = 0;
+
+    int size() {
+        return numberCount + objectCount;
+    }
+
+    Object get(Object key) {
+        long number = numberKey(key);
+        if (number != NO_NUMBER) return getNumber(number);
+
+        int slot = findObject(objectKey(key));
+        return slot < 0 ? null : objectValues[slot];
+    }
+
+    boolean has(Object key) {
+        long number = numberKey(key);
+        if (number != NO_NUMBER) return findNumber(number) >= 0;
+        return findObject(objectKey(key)) >= 0;
+    }
+
+    void put(Object key, Object value) {
+        long number = numberKey(key);
+        if (number != NO_NUMBER) {
+            putNumber(number, value);
+            return;
+        }
+
+        Object object = objectKey(key);
+        int hash = hash(object);
+        int mask = objectKeys.length - 1;
+        int slot = hash & mask;
+        while (objectKeys[slot] != null) {
+            if (objectHashes[slot] == hash && sameObject(objectKeys[slot], object)) {
+                objectValues[slot] = value;
+                return;
+            }
+            slot = (slot + 1) & mask;
+        }
+
+        objectKeys[slot] = object;
+        objectHashes[slot] = hash;
+        objectValues[slot] = value;
+        if (++objectCount * 2 > objectKeys.length) resizeObjects(objectKeys.length * 2);
+    }
+
+    // Returns the removed value, or nil if the key was not there.
+    Object remove(Object key) {
+        long number = numberKey(key);
+        if (number != NO_NUMBER) return removeNumber(number);
+
+        int slot = findObject(objectKey(key));
+        if (slot < 0) return null;
+        Object value = objectValues[slot];
+        objectCount--;
+
+        // shift later entries of the same run back into the gap
+        int mask = objectKeys.length - 1;
+        int gap = slot;
+        for (int next = (gap + 1) & mask; objectKeys[next] != null; next = (next + 1) & mask) {
+            int home = objectHashes[next] & mask;
+            if (((next - home) & mask) >= ((next - gap) & mask)) {
+                objectKeys[gap] = objectKeys[next];
+                objectHashes[gap] = objectHashes[next];
+                objectValues[gap] = objectValues[next];
+                gap = next;
+            }
+        }
+        objectKeys[gap] = null;
+        objectValues[gap] = null;
+        return value;
+    }
+
+    LoxArray keys() {
+        Object[] keys = new Object[size()];
+        int next = 0;
+        for (long key : numberKeys) {
+            if (key != NO_NUMBER) keys[next++] = Double.longBitsToDouble(key);
+        }
+        for (Object key : objectKeys) {
+            if (key != null) keys[next++] = key == NIL_KEY ? null : key;
+        }
+        return LoxArray.of(keys, keys.length);
+    }
+
+    LoxArray values() {
+        Object[] values = new Object[size()];
+        int next = 0;
+        for (int i = 0; i < numberKeys.length; ++i) {
+            if (numberKeys[i] != NO_NUMBER) values[next++] = numberValues[i];
+        }
+        for (int i = 0; i < objectKeys.length; ++i) {
+            if (objectKeys[i] != null) values[next++] = objectValues[i];
+        }
+        return LoxArray.of(values, values.length);
+    }
+
+    Object get(Token name) {
+        switch (name.lexeme) {
+            case "size":
+                return (double)size();
+            case "get":
+                return new NativeFunction(name.lexeme, 1) {
+                    @Override
+                    public Object call(Interpreter interpreter, List<Object> arguments) {
+                        return get(arguments.get(0));
+                    }
+                };
+            case "put":
+                return new NativeFunction(name.lexeme, 2) {
+                    @Override
+                    public Object call(Interpreter interpreter, List<Object> arguments) {
+                        put(arguments.get(0), arguments.get(1));
+                        return null;
+                    }
+                };
+            case "has":
+                return new NativeFunction(name.lexeme, 1) {
+                    @Override
+                    public Object call(Interpreter interpreter, List<Object> arguments) {
+                        return has(arguments.get(0));
+                    }
+                };
+            case "remove":
+                return new NativeFunction(name.lexeme, 1) {
+                    @Override
+                    public Object call(Interpreter interpreter, List<Object> arguments) {
+                        return remove(arguments.get(0));
+                    }
+                };
+            case "keys":
+                return new NativeFunction(name.lexeme, 0) {
+                    @Override
+                    public Object call(Interpreter interpreter, List<Object> arguments) {
+                        return keys();
+                    }
+                };
+            case "values":
+                return new NativeFunction(name.lexeme, 0) {
+                    @Override
+                    public Object call(Interpreter interpreter, List<Object> arguments) {
+                        return values();
+                    }
+                };
+            case "forEach":
+                return new NativeFunction(name.lexeme, 1) {
+                    @Override
+                    public Object call(Interpreter interpreter, List<Object> arguments) {
+                        forEach(interpreter, arguments.get(0));
+                        return null;
+                    }
+                };
+            default:
+                throw new RuntimeError(name, "Undefined property '" + name.lexeme + "'.");
+        }
+    }
+
+    // Calls function(key, value) for every entry. The entries are copied
+    // first, so the function may change the map.
+    private void forEach(Interpreter interpreter, Object function) {
+        if (!(function instanceof LoxCallable) || ((LoxCallable)function).arity() != 2) {
+            throw new RuntimeError(null, "forEach expects a function of 2 arguments.");
+        }
+
+        LoxArray keys = keys();
+        LoxArray values = values();
+        for (int i = 0; i < keys.size(); ++i) {
+            ((LoxCallable)function).call(interpreter, Arrays.asList(keys.get(i), values.get(i)));
+        }
+    }
+
+    private Object getNumber(long key) {
+        int slot = findNumber(key);
+        return slot < 0 ? null : numberValues[slot];
+    }
+
+    private int findNumber(long key) {
+        int mask = numberKeys.length - 1;
+        for (int slot = hash(key) & mask; numberKeys[slot] != NO_NUMBER; slot = (slot + 1) & mask) {
+            if (numberKeys[slot] == key) return slot;
+        }
+        return -1;
+    }
+
+    private void putNumber(long key, Object value) {
+        int mask = numberKeys.length - 1;
+        int slot = hash(key) & mask;
+        while (numberKeys[slot] != NO_NUMBER) {
+            if (numberKeys[slot] == key) {
+                numberValues[slot] = value;
+                return;
+            }
+            slot = (slot + 1) & mask;
+        }
+
+        numberKeys[slot] = key;
+        numberValues[slot] = value;
+        if (++numberCount * 2 > numberKeys.length) resizeNumbers(numberKeys.length * 2);
+    }
+
+    private Object removeNumber(long key) {
+        int slot = findNumber(key);
+        if (slot < 0) return null;
+        Object value = numberValues[slot];
+        numberCount--;
+
+        int mask = numberKeys.length - 1;
+        int gap = slot;
+        for (int next = (gap + 1) & mask; numberKeys[next] != NO_NUMBER; next = (next + 1) & mask) {
+            int home = hash(numberKeys[next]) & mask;
+            if (((next - home) & mask) >= ((next - gap) & mask)) {
+                numberKeys[gap] = numberKeys[next];
+                numberValues[gap] = numberValues[next];
+                gap = next;
+            }
+        }
+        numberKeys[gap] = NO_NUMBER;
+        numberValues[gap] = null;
+        return value;
+    }
+
+    private int findObject(Object key) {
+        int hash = hash(key);
+        int mask = objectKeys.length - 1;
+        for (int slot = hash & mask; objectKeys[slot] != null; slot = (slot + 1) & mask) {
+            if (objectHashes[slot] == hash && sameObject(objectKeys[slot], key)) return slot;
+        }
+        return -1;
+    }
+
+    private void resizeNumbers(int capacity) {
+        long[] keys = numberKeys;
+        Object[] values = numberValues;
+        numberKeys = emptyNumbers(capacity);
+        numberValues = new Object[capacity];
+
+        int mask = capacity - 1;
+        for (int i = 0; i < keys.length; ++i) {
+            if (keys[i] == NO_NUMBER) continue;
+            int slot = hash(keys[i]) & mask;
+            while (numberKeys[slot] != NO_NUMBER) slot = (slot + 1) & mask;
+            numberKeys[slot] = keys[i];
+            numberValues[slot] = values[i];
+        }
+    }
+
+    private void resizeObjects(int capacity) {
+        Object[] keys = objectKeys;
+        int[] hashes = objectHashes;
+        Object[] values = objectValues;
+        objectKeys = new Object[capacity];
+        objectHashes = new int[capacity];
+        objectValues = new Object[capacity];
+
+        int mask = capacity - 1;
+        for (int i = 0; i < keys.length; ++i) {
+            if (keys[i] == null) continue;
+            int slot = hashes[i] & mask;
+            while (objectKeys[slot] != null) slot = (slot + 1) & mask;
+            objectKeys[slot] = keys[i];
+            objectHashes[slot] = hashes[i];
+            objectValues[slot] = values[i];
+        }
+    }
+
+    private static long[] emptyNumbers(int capacity) {
+        long[] keys = new long[capacity];
+        Arrays.fill(keys, NO_NUMBER);
+        return keys;
+    }
+
+    // The bits of the number a key stands for under Lox equality, or
+    // NO_NUMBER if it is neither a number nor a string that spells one.
+    static long numberKey(Object key) {
+        key = LoxRope.flatten(key);
+        if (key instanceof Double) return Double.doubleToLongBits((Double)key);
+        if (!(key instanceof String)) return NO_NUMBER;
+        return Numbers.numberBits((String)key);
+    }
+
+    private static Object objectKey(Object key) {
+        if (key instanceof LoxRope) return key.toString();
+        return key == null ? NIL_KEY : key;
+    }
+
+    private static boolean sameObject(Object stored, Object key) {
+        if (stored == key) return true;
+        if (stored instanceof String || stored instanceof Boolean) return stored.equals(key);
+        return false;
+    }
+
+    private static int hash(Object key) {
+        int hash = key instanceof String || key instanceof Boolean ? key.hashCode() : System.identityHashCode(key);
+        return hash ^ (hash >>> 16);
+    }
+
+    private static int hash(long bits) {
+        long mixed = bits * 0x9E3779B97F4A7C15L;
+        return (int)(mixed ^ (mixed >>> 32));
+    }
+
+    @Override
+    public String toString() {
+        if (!LoxArray.startPrinting(this)) return "{...}";
+        try {
+            StringBuilder builder = new StringBuilder("{");
+            LoxArray keys = keys();
+            LoxArray values = values();
+            for (int i = 0; i < keys.size(); ++i) {
+                if (i > 0) builder.append(", ");
+                LoxArray.appendElement(builder, keys.get(i));
+                builder.append(": ");
+                LoxArray.appendElement(builder, values.get(i));
+            }
+            return builder.append("}").toString();
+        } finally {
+            LoxArray.stopPrinting(this);
+        }
+    }
+}
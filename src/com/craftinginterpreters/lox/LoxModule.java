@@ -0,0 +1,24 @@
+package com.craftinginterpreters.lox;
+
+class LoxModule {
+    final String name;
+    final Environment scope;
+
+    LoxModule(String name, Environment scope) {
+        this.name = name;
+        this.scope = scope;
+    }
+
+    Object get(Token name) {
+        if(scope.contains(name.lexeme)) {
+            return scope.get(name);
+        }
+
+        throw new RuntimeError(name, "Module '" + this.name + "' has no member '" + name.lexeme + "'.");
+    }
+
+    @Override
+    public String toString() {
+        return "<module " + name + ">";
+    }
+}
@@ -0,0 +1,98 @@
+package com.craftinginterpreters.lox;
+
+import java.util.ArrayDeque;
+
+// A string built by '+' that has not been looked at yet: a node pointing at
+// its two halves, so 's = s + piece' costs one node instead of copying s.
+// The characters are joined the first time anything reads them (printing,
+// comparing, map keys, the host) and the result is kept, after which the
+// halves are dropped. Short results are plain Strings; ropes only start once
+// a concatenation reaches THRESHOLD characters.
+//
+// Everywhere else in the interpreter a Lox string is a String or a LoxRope;
+// flatten() turns a value into a String where the difference matters.
+final class LoxRope implements CharSequence {
+    static final int THRESHOLD = 256;
+
+    // volatile so a thread that finds the halves gone also sees flat
+    private volatile CharSequence left;
+    private volatile CharSequence right;
+    private volatile String flat;
+    private final int length;
+
+    private LoxRope(CharSequence left, CharSequence right, int length) {
+        this.left = left;
+        this.right = right;
+        this.length = length;
+    }
+
+    // left + right, where each is a String or a LoxRope.
+    static CharSequence concat(CharSequence left, CharSequence right) {
+        int length = left.length() + right.length();
+        if (length < 0) throw new RuntimeError(null, "String too long.");
+        if (right.length() == 0) return left;
+        if (left.length() == 0) return right;
+        if (length < THRESHOLD && left instanceof String && right instanceof String) {
+            return (String)left + right;
+        }
+        return new LoxRope(left, right, length);
+    }
+
+    static Object flatten(Object value) {
+        return value instanceof LoxRope ? value.toString() : value;
+    }
+
+    @Override
+    public int length() {
+        return length;
+    }
+
+    @Override
+    public char charAt(int index) {
+        return toString().charAt(index);
+    }
+
+    @Override
+    public CharSequence subSequence(int start, int end) {
+        return toString().subSequence(start, end);
+    }
+
+    @Override
+    public String toString() {
+        String result = flat;
+        if (result != null) return result;
+
+        synchronized (this) {
+            if (flat != null) return flat;
+
+            // iterative, since a rope built in a loop is as deep as the loop is long
+            StringBuilder builder = new StringBuilder(length);
+            ArrayDeque<CharSequence> pending = new ArrayDeque<>();
+            pending.push(this);
+            while (!pending.isEmpty()) {
+                CharSequence next = pending.pop();
+                if (!(next instanceof LoxRope)) {
+                    builder.append(next);
+                    continue;
+                }
+
+                LoxRope rope = (LoxRope)next;
+                String ropeFlat = rope.flat;
+                CharSequence ropeLeft = rope.left;
+                CharSequence ropeRight = rope.right;
+                if (ropeFlat == null && ropeLeft != null && ropeRight != null) {
+                    pending.push(ropeRight);
+                    pending.push(ropeLeft);
+                } else {
+                    // flattened by another thread, which sets flat before dropping the halves
+                    builder.append(rope.flat);
+                }
+            }
+
+            flat = builder.toString();
+            left = null;
+            right = null;
+            return flat;
+        }
+    }
+}
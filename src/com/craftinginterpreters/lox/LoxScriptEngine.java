@@ -0,0 +1,342 @@
+package com.craftinginterpreters.lox;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.script.AbstractScriptEngine;
+import javax.script.Bindings;
+import javax.script.Compilable;
+import javax.script.CompiledScript;
+import javax.script.Invocable;
+import javax.script.ScriptContext;
+import javax.script.ScriptEngine;
+import javax.script.ScriptEngineFactory;
+import javax.script.ScriptException;
+import javax.script.SimpleBindings;
+
+// javax.script binding for Lox. The engine's own ENGINE_SCOPE Bindings are the
+// storage of the interpreter's global scope: host puts are Lox globals and Lox
+// top-level declarations show up in the Bindings, with nothing copied either
+// way. Bindings the host made itself are mirrored instead, since the
+// interpreter keeps values in them the host must not see. 'print' output goes
+// to the context's writer after each call.
+public class LoxScriptEngine extends AbstractScriptEngine implements Compilable, Invocable {
+    // Bindings that store host numbers as doubles, the only number type Lox
+    // has. The interpreter works on the storage map directly; the host reads
+    // through these methods, which hide the interpreter's sentinels. Spawned
+    // tasks write globals from their own threads, so the storage is concurrent.
+    private static class Globals extends SimpleBindings {
+        final Map<String, Object> storage;
+
+        Globals() {
+            this(new ConcurrentHashMap<>());
+        }
+
+        private Globals(Map<String, Object> storage) {
+            super(storage);
+            this.storage = storage;
+        }
+
+        @Override
+        public Object put(String name, Object value) {
+            // the concurrent storage can't hold null, so nil is kept as NIL
+            return toHost(super.put(name, value == null ? Environment.NIL : toLox(value)));
+        }
+
+        @Override
+        public Object get(Object name) {
+            return toHost(super.get(name));
+        }
+
+        @Override
+        public Object remove(Object name) {
+            return toHost(super.remove(name));
+        }
+
+        @Override
+        public Collection<Object> values() {
+            List<Object> values = new ArrayList<>();
+            for (Object value : super.values()) {
+                values.add(toHost(value));
+            }
+            return values;
+        }
+
+        @Override
+        public Set<Map.Entry<String, Object>> entrySet() {
+            Set<Map.Entry<String, Object>> entries = new LinkedHashSet<>();
+            for (Map.Entry<String, Object> entry : super.entrySet()) {
+                entries.add(new AbstractMap.SimpleImmutableEntry<>(entry.getKey(), toHost(entry.getValue())));
+            }
+            return entries;
+        }
+
+        @Override
+        public void putAll(Map<? extends String, ? extends Object> values) {
+            for (Map.Entry<? extends String, ? extends Object> entry : values.entrySet()) {
+                put(entry.getKey(), entry.getValue());
+            }
+        }
+    }
+
+    private class Compiled extends CompiledScript {
+        private final Program program;
+
+        Compiled(Program program) {
+            this.program = program;
+        }
+
+        @Override
+        public Object eval(ScriptContext context) throws ScriptException {
+            Interpreter interpreter = interpreterFor(context);
+            try {
+                return LoxRope.flatten(interpreter.evaluateAll(program.statements));
+            } catch (RuntimeError error) {
+                throw scriptException(error);
+            } finally {
+                publish();
+                drain(context);
+            }
+        }
+
+        @Override
+        public ScriptEngine getEngine() {
+            return LoxScriptEngine.this;
+        }
+    }
+
+    private final LoxScriptEngineFactory factory;
+    private final OutputSink output = OutputSink.memory();
+    private final ErrorReporter errors = new ErrorReporter(System.err);
+    private Interpreter interpreter;
+    private Bindings interpreterBindings;
+    // the globals standing in for interpreterBindings when the host made them
+    private Globals mirror;
+
+    LoxScriptEngine(LoxScriptEngineFactory factory) {
+        this.factory = factory;
+        setBindings(createBindings(), ScriptContext.ENGINE_SCOPE);
+    }
+
+    @Override
+    public Bindings createBindings() {
+        return new Globals();
+    }
+
+    @Override
+    public ScriptEngineFactory getFactory() {
+        return factory;
+    }
+
+    @Override
+    public Object eval(String script, ScriptContext context) throws ScriptException {
+        return compile(script).eval(context);
+    }
+
+    @Override
+    public Object eval(Reader reader, ScriptContext context) throws ScriptException {
+        return eval(read(reader), context);
+    }
+
+    @Override
+    public CompiledScript compile(String script) throws ScriptException {
+        return new Compiled(factory.compile(script));
+    }
+
+    @Override
+    public CompiledScript compile(Reader script) throws ScriptException {
+        return compile(read(script));
+    }
+
+    @Override
+    public Object invokeFunction(String name, Object... args) throws ScriptException, NoSuchMethodException {
+        Interpreter interpreter = interpreterFor(context);
+        Object function = interpreter.globals.contains(name) ? interpreter.globals.getAt(0, name) : null;
+        if (!(function instanceof LoxCallable)) {
+            throw new NoSuchMethodException("No Lox function '" + name + "'.");
+        }
+        return call(interpreter, (LoxCallable)function, args);
+    }
+
+    @Override
+    public Object invokeMethod(Object thiz, String name, Object... args) throws ScriptException, NoSuchMethodException {
+        if (!(thiz instanceof LoxInstance)) {
+            throw new IllegalArgumentException("Not a Lox instance: " + thiz);
+        }
+
+        Interpreter interpreter = interpreterFor(context);
+        Object method;
+        try {
+            method = ((LoxInstance)thiz).get(new Token(TokenType.IDENTIFIER, name, null, 0), interpreter);
+        } catch (RuntimeError error) {
+            throw new NoSuchMethodException(error.getMessage());
+        }
+        if (!(method instanceof LoxCallable)) {
+            throw new NoSuchMethodException("Property '" + name + "' is not callable.");
+        }
+        return call(interpreter, (LoxCallable)method, args);
+    }
+
+    @Override
+    public <T> T getInterface(Class<T> type) {
+        return proxy(null, type);
+    }
+
+    @Override
+    public <T> T getInterface(Object thiz, Class<T> type) {
+        if (!(thiz instanceof LoxInstance)) {
+            throw new IllegalArgumentException("Not a Lox instance: " + thiz);
+        }
+        return proxy(thiz, type);
+    }
+
+    private Object call(Interpreter interpreter, LoxCallable function, Object[] args) throws ScriptException {
+        List<Object> arguments = new ArrayList<>(args == null ? 0 : args.length);
+        if (args != null) {
+            for (Object arg : args) {
+                arguments.add(toLox(arg));
+            }
+        }
+
+        if (arguments.size() != function.arity()) {
+            throw new ScriptException("Expected " + function.arity() + " arguments but got " + arguments.size() + ".");
+        }
+
+        try {
+            return LoxRope.flatten(function.call(interpreter, arguments));
+        } catch (RuntimeError error) {
+            throw scriptException(error);
+        } finally {
+            publish();
+            drain(context);
+        }
+    }
+
+    private <T> T proxy(Object thiz, Class<T> type) {
+        if (type == null || !type.isInterface()) {
+            throw new IllegalArgumentException("Not an interface: " + type);
+        }
+
+        Object instance = Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[] { type }, (self, method, args) -> {
+            if (method.getDeclaringClass() == Object.class) return objectMethod(self, method, args);
+
+            Object result = thiz == null
+                ? invokeFunction(method.getName(), args)
+                : invokeMethod(thiz, method.getName(), args);
+            return fromLox(result, method.getReturnType());
+        });
+        return type.cast(instance);
+    }
+
+    // Reuses the interpreter as long as the context keeps the same ENGINE_SCOPE
+    // Bindings, so functions and modules defined by earlier evals stay loaded.
+    private Interpreter interpreterFor(ScriptContext context) {
+        Bindings bindings = context.getBindings(ScriptContext.ENGINE_SCOPE);
+        if (interpreter == null || bindings != interpreterBindings) {
+            mirror = bindings instanceof Globals ? null : new Globals();
+            Globals globals = mirror == null ? (Globals)bindings : mirror;
+            interpreter = new Interpreter(output, errors, globals.storage);
+            interpreterBindings = bindings;
+        }
+
+        // pick up what the host changed since the last call
+        if (mirror != null) {
+            for (Map.Entry<String, Object> entry : interpreterBindings.entrySet()) {
+                if (!Objects.equals(entry.getValue(), mirror.get(entry.getKey()))) {
+                    mirror.put(entry.getKey(), entry.getValue());
+                }
+            }
+        }
+        return interpreter;
+    }
+
+    // Copies the mirrored globals back into the host's Bindings, as the host
+    // would read them from a Globals. Bindings that can't hold null (over a
+    // ConcurrentHashMap, say) have nil and uninitialized variables removed.
+    private void publish() {
+        if (mirror == null) return;
+
+        for (Map.Entry<String, Object> entry : mirror.entrySet()) {
+            try {
+                interpreterBindings.put(entry.getKey(), entry.getValue());
+            } catch (NullPointerException error) {
+                interpreterBindings.remove(entry.getKey());
+            }
+        }
+    }
+
+    private void drain(ScriptContext context) throws ScriptException {
+        String text = output.take();
+        if (text.isEmpty()) return;
+
+        try {
+            Writer writer = context.getWriter();
+            writer.write(text);
+            writer.flush();
+        } catch (IOException error) {
+            throw new ScriptException(error);
+        }
+    }
+
+    private static ScriptException scriptException(RuntimeError error) {
+        return new ScriptException(error.getMessage(), null, error.line());
+    }
+
+    private static Object toLox(Object value) {
+        if (value instanceof Number && !(value instanceof Double)) {
+            return ((Number)value).doubleValue();
+        }
+        return value;
+    }
+
+    // An uninitialized variable, or a nil kept in a concurrent map, reads as
+    // null, and a string still built as a rope reads as a String.
+    private static Object toHost(Object value) {
+        if (value == Environment.UNINITIALIZED || value == Environment.NIL) return null;
+        return LoxRope.flatten(value);
+    }
+
+    private static Object fromLox(Object value, Class<?> type) {
+        if (!(value instanceof Double)) return value;
+
+        double number = (Double)value;
+        if (type == int.class || type == Integer.class) return (int)number;
+        if (type == long.class || type == Long.class) return (long)number;
+        if (type == float.class || type == Float.class) return (float)number;
+        if (type == short.class || type == Short.class) return (short)number;
+        if (type == byte.class || type == Byte.class) return (byte)number;
+        return value;
+    }
+
+    private static Object objectMethod(Object self, Method method, Object[] args) {
+        switch (method.getName()) {
+            case "equals": return self == args[0];
+            case "hashCode": return System.identityHashCode(self);
+            default: return "Lox proxy " + Arrays.toString(self.getClass().getInterfaces());
+        }
+    }
+
+    private static String read(Reader reader) throws ScriptException {
+        StringWriter source = new StringWriter();
+        try {
+            reader.transferTo(source);
+        } catch (IOException error) {
+            throw new ScriptException(error);
+        }
+        return source.toString();
+    }
+}
@@ -0,0 +1,126 @@
+package com.craftinginterpreters.lox;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.script.ScriptEngine;
+import javax.script.ScriptEngineFactory;
+import javax.script.ScriptException;
+
+// javax.script entry point, registered in META-INF/services. Compiled
+// Programs are immutable, so the factory keeps one cache of them shared by
+// every engine it creates: evaluating the same source twice, from any
+// engine, skips the scanner, parser and resolver.
+public class LoxScriptEngineFactory implements ScriptEngineFactory {
+    static final int CACHE_SIZE = 256;
+
+    private final Map<String, Program> programs = new LinkedHashMap<String, Program>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Program> eldest) {
+            return size() > CACHE_SIZE;
+        }
+    };
+
+    @Override
+    public String getEngineName() {
+        return "jlox";
+    }
+
+    @Override
+    public String getEngineVersion() {
+        return "1.0";
+    }
+
+    @Override
+    public List<String> getExtensions() {
+        return List.of("lox");
+    }
+
+    @Override
+    public List<String> getMimeTypes() {
+        return List.of("application/x-lox");
+    }
+
+    @Override
+    public List<String> getNames() {
+        return List.of("lox", "Lox", "jlox");
+    }
+
+    @Override
+    public String getLanguageName() {
+        return "Lox";
+    }
+
+    @Override
+    public String getLanguageVersion() {
+        return "1.0";
+    }
+
+    @Override
+    public Object getParameter(String key) {
+        switch (key) {
+            case ScriptEngine.ENGINE: return getEngineName();
+            case ScriptEngine.ENGINE_VERSION: return getEngineVersion();
+            case ScriptEngine.NAME: return getNames().get(0);
+            case ScriptEngine.LANGUAGE: return getLanguageName();
+            case ScriptEngine.LANGUAGE_VERSION: return getLanguageVersion();
+            // an engine must not be shared between threads; Programs can be
+            default: return null;
+        }
+    }
+
+    @Override
+    public String getMethodCallSyntax(String obj, String m, String... args) {
+        return obj + "." + m + "(" + String.join(", ", args) + ")";
+    }
+
+    @Override
+    public String getOutputStatement(String toDisplay) {
+        return "print \"" + toDisplay + "\";";
+    }
+
+    @Override
+    public String getProgram(String... statements) {
+        StringBuilder program = new StringBuilder();
+        for (String statement : statements) {
+            program.append(statement).append(";\n");
+        }
+        return program.toString();
+    }
+
+    @Override
+    public ScriptEngine getScriptEngine() {
+        return new LoxScriptEngine(this);
+    }
+
+    // Returns the cached Program for source, compiling it on a miss. A bare
+    // trailing expression is allowed so eval("a + b") yields a value.
+    Program compile(String source) throws ScriptException {
+        synchronized (programs) {
+            Program program = programs.get(source);
+            if (program != null) return program;
+        }
+
+        ByteArrayOutputStream messages = new ByteArrayOutputStream();
+        ErrorReporter errors = new ErrorReporter(new PrintStream(messages, true, StandardCharsets.UTF_8));
+
+        Scanner scanner = new Scanner(source, errors);
+        Parser parser = new Parser(scanner.scanTokens(), errors);
+        List<Stmt> statements = parser.parseRepl();
+        if (!errors.hadError) new Resolver(errors).resolve(statements);
+
+        if (errors.hadError) {
+            throw new ScriptException(messages.toString(StandardCharsets.UTF_8).trim());
+        }
+
+        Program program = new Program(statements);
+        synchronized (programs) {
+            programs.put(source, program);
+        }
+        return program;
+    }
+}
@@ -0,0 +1,296 @@
+package com.craftinginterpreters.lox;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+// A lazy sequence made by 'range(from, to)'. map(), filter() and take()
+// return a new sequence that only records the stage; nothing runs until
+// reduce() or toArray() pulls the elements through. Each pull opens a chain
+// of cursors, one per stage, and drives it in a single loop, so no stage
+// collects its results and memory stays constant however long the range.
+//
+// A sequence can be run any number of times; all per-run state lives in
+// its cursors.
+//
+// Cursors are also how 'for (x in xs)' walks anything: over() makes one
+// cursor per loop, with a specialized one for each kind of collection.
+abstract class LoxSequence {
+    // What Cursor.next() returns once the sequence is exhausted.
+    static final Object DONE = new Object();
+
+    abstract static class Cursor {
+        abstract Object next();
+    }
+
+    abstract Cursor open(Interpreter interpreter);
+
+    // A cursor over the elements of an array, persistent vector or sequence,
+    // the keys of a map, what a channel receives until it is closed, or an
+    // instance whose class has iterator(), or hasNext() and next().
+    static Cursor over(Object iterable, Interpreter interpreter, Token at) {
+        if (iterable instanceof LoxSequence) return ((LoxSequence)iterable).open(interpreter);
+
+        if (iterable instanceof LoxArray) {
+            LoxArray array = (LoxArray)iterable;
+            return new Cursor() {
+                private int next = 0;
+
+                @Override
+                Object next() {
+                    // size is read each time, so appends made by the loop are seen
+                    return next < array.size() ? array.get(next++) : DONE;
+                }
+            };
+        }
+
+        if (iterable instanceof PersistentVector) {
+            PersistentVector vector = (PersistentVector)iterable;
+            return new Cursor() {
+                private int next = 0;
+
+                @Override
+                Object next() {
+                    return next < vector.size() ? vector.get(next++) : DONE;
+                }
+            };
+        }
+
+        // keys are copied first, so the loop may change the map
+        if (iterable instanceof LoxMap) return over(((LoxMap)iterable).keys(), interpreter, at);
+        if (iterable instanceof PersistentMap) return over(((PersistentMap)iterable).keys(), interpreter, at);
+
+        if (iterable instanceof LoxChannel) {
+            LoxChannel channel = (LoxChannel)iterable;
+            return new Cursor() {
+                @Override
+                Object next() {
+                    Object value = channel.receive();
+                    return value == LoxChannel.CLOSED ? DONE : value;
+                }
+            };
+        }
+
+        if (iterable instanceof LoxInstance) return over((LoxInstance)iterable, interpreter, at);
+
+        throw new RuntimeError(at, "Can only iterate over arrays, maps, sequences, channels and iterable instances.");
+    }
+
+    private static Cursor over(LoxInstance instance, Interpreter interpreter, Token at) {
+        LoxFunction iterator = instance.klass.findMethod("iterator");
+        if (iterator != null) {
+            Object result = call(iterator.bind(instance), interpreter, at);
+            // an instance may be its own iterator
+            if (result != instance) return over(result, interpreter, at);
+        }
+
+        LoxFunction hasNext = instance.klass.findMethod("hasNext");
+        LoxFunction next = instance.klass.findMethod("next");
+        if (hasNext == null || next == null) {
+            throw new RuntimeError(at, "Instance is not iterable: it needs iterator(), or hasNext() and next().");
+        }
+
+        // bound once for the whole loop
+        LoxFunction boundHasNext = hasNext.bind(instance);
+        LoxFunction boundNext = next.bind(instance);
+        return new Cursor() {
+            @Override
+            Object next() {
+                if (!Interpreter.isTruthy(call(boundHasNext, interpreter, at))) return DONE;
+                return call(boundNext, interpreter, at);
+            }
+        };
+    }
+
+    // Calls one of the methods of the iteration protocol, blaming the loop.
+    private static Object call(LoxFunction method, Interpreter interpreter, Token at) {
+        if (method.arity() != 0) {
+            throw new RuntimeError(at, "Iteration method '" + method.declaration.name.lexeme + "' must take no arguments.");
+        }
+        return interpreter.call(method, Collections.emptyList(), at);
+    }
+
+    Object reduce(Interpreter interpreter, LoxCallable function, Object initial) {
+        Cursor cursor = open(interpreter);
+        Object accumulator = initial;
+        for (Object value = cursor.next(); value != DONE; value = cursor.next()) {
+            accumulator = function.call(interpreter, Arrays.asList(accumulator, value));
+        }
+        return accumulator;
+    }
+
+    LoxArray toArray(Interpreter interpreter) {
+        Cursor cursor = open(interpreter);
+        LoxArray array = LoxArray.nils(0);
+        for (Object value = cursor.next(); value != DONE; value = cursor.next()) {
+            array.append(value);
+        }
+        return array;
+    }
+
+    Object get(Token name) {
+        switch (name.lexeme) {
+            case "map":
+                return new NativeFunction(name.lexeme, 1) {
+                    @Override
+                    public Object call(Interpreter interpreter, List<Object> arguments) {
+                        return new Mapped(LoxSequence.this, function(arguments.get(0), 1, "map"));
+                    }
+                };
+            case "filter":
+                return new NativeFunction(name.lexeme, 1) {
+                    @Override
+                    public Object call(Interpreter interpreter, List<Object> arguments) {
+                        return new Filtered(LoxSequence.this, function(arguments.get(0), 1, "filter"));
+                    }
+                };
+            case "take":
+                return new NativeFunction(name.lexeme, 1) {
+                    @Override
+                    public Object call(Interpreter interpreter, List<Object> arguments) {
+                        Object count = arguments.get(0);
+                        if (!(count instanceof Double) || (Double)count < 0 || (Double)count % 1 != 0) {
+                            throw new RuntimeError(null, "take expects a non-negative integer.");
+                        }
+                        return new Taken(LoxSequence.this, (Double)count);
+                    }
+                };
+            case "reduce":
+                return new NativeFunction(name.lexeme, 2) {
+                    @Override
+                    public Object call(Interpreter interpreter, List<Object> arguments) {
+                        return reduce(interpreter, function(arguments.get(0), 2, "reduce"), arguments.get(1));
+                    }
+                };
+            case "toArray":
+                return new NativeFunction(name.lexeme, 0) {
+                    @Override
+                    public Object call(Interpreter interpreter, List<Object> arguments) {
+                        return toArray(interpreter);
+                    }
+                };
+            default:
+                throw new RuntimeError(name, "Undefined property '" + name.lexeme + "'.");
+        }
+    }
+
+    private static LoxCallable function(Object value, int arity, String name) {
+        if (!(value instanceof LoxCallable) || ((LoxCallable)value).arity() != arity) {
+            throw new RuntimeError(null, name + " expects a function of " + arity + (arity == 1 ? " argument." : " arguments."));
+        }
+        return (LoxCallable)value;
+    }
+
+
+    // from, from + 1, ... while below to.
+    static class Range extends LoxSequence {
+        private static final double MAX_SAFE = 9007199254740992.0;
+
+        private final double from;
+        private final double to;
+
+        Range(double from, double to) {
+            this.from = from;
+            this.to = to;
+        }
+
+        // Whether every step from a bound of this size still moves by one.
+        static boolean isSafe(double bound) {
+            return bound >= -MAX_SAFE && bound <= MAX_SAFE;
+        }
+
+        @Override
+        Cursor open(Interpreter interpreter) {
+            return new Cursor() {
+                // counted rather than summed, so a fractional from doesn't drift
+                private long steps = 0;
+
+                @Override
+                Object next() {
+                    double value = from + steps;
+                    if (!(value < to)) return DONE;
+                    steps++;
+                    return value;
+                }
+            };
+        }
+    }
+
+    private static class Mapped extends LoxSequence {
+        private final LoxSequence source;
+        private final LoxCallable function;
+
+        Mapped(LoxSequence source, LoxCallable function) {
+            this.source = source;
+            this.function = function;
+        }
+
+        @Override
+        Cursor open(Interpreter interpreter) {
+            Cursor upstream = source.open(interpreter);
+            return new Cursor() {
+                @Override
+                Object next() {
+                    Object value = upstream.next();
+                    if (value == DONE) return DONE;
+                    return function.call(interpreter, Arrays.asList(value));
+                }
+            };
+        }
+    }
+
+    private static class Filtered extends LoxSequence {
+        private final LoxSequence source;
+        private final LoxCallable predicate;
+
+        Filtered(LoxSequence source, LoxCallable predicate) {
+            this.source = source;
+            this.predicate = predicate;
+        }
+
+        @Override
+        Cursor open(Interpreter interpreter) {
+            Cursor upstream = source.open(interpreter);
+            return new Cursor() {
+                @Override
+                Object next() {
+                    for (Object value = upstream.next(); value != DONE; value = upstream.next()) {
+                        if (Interpreter.isTruthy(predicate.call(interpreter, Arrays.asList(value)))) return value;
+                    }
+                    return DONE;
+                }
+            };
+        }
+    }
+
+    private static class Taken extends LoxSequence {
+        private final LoxSequence source;
+        private final double count;
+
+        Taken(LoxSequence source, double count) {
+            this.source = source;
+            this.count = count;
+        }
+
+        @Override
+        Cursor open(Interpreter interpreter) {
+            Cursor upstream = source.open(interpreter);
+            return new Cursor() {
+                private double taken = 0;
+
+                @Override
+                Object next() {
+                    // checked first, so nothing upstream runs once the count is reached
+                    if (taken >= count) return DONE;
+                    taken++;
+                    return upstream.next();
+                }
+            };
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "<sequence>";
+    }
+}
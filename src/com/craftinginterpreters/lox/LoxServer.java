@@ -0,0 +1,217 @@
+package com.craftinginterpreters.lox;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+// Keeps one warm JVM serving 'jlox --connect' clients over a Unix domain
+// socket. Each request runs in its own LoxEngine; compiled scripts are cached
+// by path and reused while the file's text is unchanged.
+//
+// Every message is a frame: a kind byte, an int length and a payload. The
+// client sends one REQUEST (its working directory and arguments); the server
+// answers with any number of STDOUT/STDERR frames and then one EXIT frame.
+class LoxServer {
+    static final byte REQUEST = 1;
+    static final byte STDOUT = 2;
+    static final byte STDERR = 3;
+    static final byte EXIT = 4;
+
+    // Lengths read from the wire are checked against these before anything
+    // is allocated for them.
+    static final int MAX_REQUEST = 1 << 20;
+    static final int MAX_ARGS = 1024;
+
+    // The file type bits of a "unix:mode" attribute, and the type of a socket.
+    private static final int TYPE_MASK = 0170000;
+    private static final int SOCKET_TYPE = 0140000;
+
+    private static class Cached {
+        final String source;
+        final Program program;
+
+        Cached(String source, Program program) {
+            this.source = source;
+            this.program = program;
+        }
+    }
+
+    // Sends each write as one frame of the given kind.
+    private static class FrameChannel implements WritableByteChannel {
+        private final DataOutputStream out;
+        private final byte kind;
+
+        FrameChannel(DataOutputStream out, byte kind) {
+            this.out = out;
+            this.kind = kind;
+        }
+
+        @Override
+        public int write(ByteBuffer bytes) throws IOException {
+            int length = bytes.remaining();
+            byte[] payload = new byte[length];
+            bytes.get(payload);
+            writeFrame(out, kind, payload);
+            return length;
+        }
+
+        @Override
+        public boolean isOpen() {
+            return true;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    private final Path socket;
+    private final Map<Path, Cached> scripts = new ConcurrentHashMap<>();
+    private final ExecutorService workers = Executors.newCachedThreadPool();
+
+    LoxServer(Path socket) {
+        this.socket = socket;
+    }
+
+    // Whether path is free to listen on: nothing is there, or a socket left
+    // behind by an earlier server.
+    static boolean canListen(Path path) throws IOException {
+        return !Files.exists(path, LinkOption.NOFOLLOW_LINKS) || isSocket(path);
+    }
+
+    private static boolean isSocket(Path path) throws IOException {
+        int mode = (Integer)Files.getAttribute(path, "unix:mode", LinkOption.NOFOLLOW_LINKS);
+        return (mode & TYPE_MASK) == SOCKET_TYPE;
+    }
+
+    void serve() throws IOException {
+        // binding fails on anything else that is in the way
+        if (Files.exists(socket, LinkOption.NOFOLLOW_LINKS) && isSocket(socket)) Files.delete(socket);
+        try (ServerSocketChannel server = ServerSocketChannel.open(StandardProtocolFamily.UNIX)) {
+            server.bind(UnixDomainSocketAddress.of(socket));
+            socket.toFile().deleteOnExit();
+            System.err.println("Listening on " + socket);
+
+            for (;;) {
+                SocketChannel client = server.accept();
+                workers.execute(() -> handle(client));
+            }
+        }
+    }
+
+    private void handle(SocketChannel client) {
+        try (client) {
+            DataInputStream in = new DataInputStream(Channels.newInputStream(client));
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(client)));
+
+            if (in.readByte() != REQUEST) return;
+            int length = in.readInt();
+            if (length < 0 || length > MAX_REQUEST) return;
+            byte[] payload = new byte[length];
+            in.readFully(payload);
+
+            DataInputStream request = new DataInputStream(new ByteArrayInputStream(payload));
+            Path directory = Paths.get(request.readUTF());
+            int count = request.readInt();
+            if (count < 0 || count > MAX_ARGS) return;
+            String[] args = new String[count];
+            for (int i = 0; i < args.length; ++i) {
+                args[i] = request.readUTF();
+            }
+
+            int code = run(directory, args, out);
+            ByteBuffer exit = ByteBuffer.allocate(4).putInt(code);
+            writeFrame(out, EXIT, exit.array());
+        } catch (IOException | RuntimeException error) {
+            // the client went away, or sent a request that doesn't parse (a
+            // path with a NUL, say); its engine has already finished or failed
+        }
+    }
+
+    // Runs one request like Lox.main would and returns its exit code.
+    private int run(Path directory, String[] args, DataOutputStream out) {
+        OutputSink stdout = OutputSink.channel(new FrameChannel(out, STDOUT), OutputSink.Flush.SIZE, OutputSink.DEFAULT_CAPACITY);
+        PrintStream stderr = new PrintStream(Channels.newOutputStream(new FrameChannel(out, STDERR)), true, StandardCharsets.UTF_8);
+
+        if (args.length != 1) {
+            stdout.println("Usage: jlox --connect <socket> script");
+            stdout.flush();
+            return 64;
+        }
+
+        Path path = directory.resolve(args[0]).toAbsolutePath().normalize();
+        String source;
+        try {
+            source = new String(Files.readAllBytes(path), Charset.defaultCharset());
+        } catch (IOException error) {
+            stderr.println("Could not read " + path + ".");
+            return 66;
+        }
+
+        LoxEngine engine = new LoxEngine(stdout, stderr);
+        try {
+            Program program = compile(engine, path, source);
+            if (program != null) engine.run(program);
+        } catch (Throwable error) {
+            // a script blowing up the interpreter (a stack overflow, say)
+            // fails only its own request
+            stdout.flush();
+            stderr.println(error);
+            return 70;
+        }
+
+        if (engine.hadError()) return 65;
+        if (engine.hadRuntimeError()) return 70;
+        return 0;
+    }
+
+    private Program compile(LoxEngine engine, Path path, String source) {
+        Cached cached = scripts.get(path);
+        if (cached != null && cached.source.equals(source)) return cached.program;
+
+        Program program = engine.compile(source, path);
+        if (program != null) scripts.put(path, new Cached(source, program));
+        return program;
+    }
+
+    static void writeFrame(DataOutputStream out, byte kind, byte[] payload) throws IOException {
+        synchronized (out) {
+            out.writeByte(kind);
+            out.writeInt(payload.length);
+            out.write(payload);
+            out.flush();
+        }
+    }
+
+    static void writeRequest(DataOutputStream out, Path directory, String[] args) throws IOException {
+        ByteArrayOutputStream payload = new ByteArrayOutputStream();
+        DataOutputStream request = new DataOutputStream(payload);
+        request.writeUTF(directory.toString());
+        request.writeInt(args.length);
+        for (String arg : args) {
+            request.writeUTF(arg);
+        }
+        writeFrame(out, REQUEST, payload.toByteArray());
+    }
+}
@@ -0,0 +1,140 @@
+package com.craftinginterpreters.lox;
+
+import java.util.ArrayList;
+import java.util.List;
+
+// How a 'match' statement finds its arm without testing the arms one by
+// one. Constant patterns (numbers, strings, nil and booleans) go in a LoxMap
+// from pattern to arm, so arms compare the way map keys do. When the number
+// patterns are integers close together, a number subject indexes a jump
+// table instead.
+//
+// Any other pattern is evaluated and compared in order, but only for the
+// arms before the one the lookup found, so the first matching arm still
+// wins. A table is never changed once built, so a tree can share it between
+// threads.
+class MatchTable {
+    private static final Object NOT_CONSTANT = new Object();
+    private static final long NEGATIVE_ZERO = Double.doubleToRawLongBits(-0.0);
+    // the largest jump table, and how many slots it may have per number pattern
+    private static final int MAX_JUMP = 1024;
+    private static final int SLOTS_PER_PATTERN = 4;
+
+    private final int arms;
+    private final LoxMap constants = new LoxMap();
+    // arm per integer from jumpFrom, arms where there is none; null unless
+    // every number pattern fits
+    private final int[] jump;
+    private final int jumpFrom;
+    // the patterns that aren't constants, in order, and their arms
+    private final Expr[] patterns;
+    private final int[] patternArms;
+
+    static MatchTable compile(Stmt.Match stmt) {
+        return new MatchTable(stmt);
+    }
+
+    private MatchTable(Stmt.Match stmt) {
+        arms = stmt.cases.size();
+        List<Expr> others = new ArrayList<>();
+        List<Integer> otherArms = new ArrayList<>();
+        for (int arm = 0; arm < arms; ++arm) {
+            for (Expr pattern : stmt.cases.get(arm).patterns) {
+                Object value = constant(pattern);
+                if (value == NOT_CONSTANT) {
+                    others.add(pattern);
+                    otherArms.add(arm);
+                } else if (!constants.has(value)) {
+                    // a repeated pattern belongs to its first arm
+                    constants.put(value, arm);
+                }
+            }
+        }
+
+        patterns = others.toArray(new Expr[0]);
+        patternArms = new int[patterns.length];
+        for (int i = 0; i < patternArms.length; ++i) patternArms[i] = otherArms.get(i);
+
+        // spelled-out numbers are number keys too, so they are in here
+        LoxArray keys = constants.keys();
+        int count = 0;
+        double min = Double.POSITIVE_INFINITY;
+        double max = Double.NEGATIVE_INFINITY;
+        boolean integers = true;
+        for (int i = 0; i < keys.size(); ++i) {
+            if (!(keys.get(i) instanceof Double)) continue;
+            double key = (Double)keys.get(i);
+            count++;
+            integers &= key == (int)key && Double.doubleToRawLongBits(key) != NEGATIVE_ZERO;
+            min = Math.min(min, key);
+            max = Math.max(max, key);
+        }
+
+        double span = max - min + 1;
+        if (count == 0 || !integers || span > MAX_JUMP || span > (double)count * SLOTS_PER_PATTERN) {
+            jump = null;
+            jumpFrom = 0;
+            return;
+        }
+        jump = new int[(int)span];
+        jumpFrom = (int)min;
+        for (int i = 0; i < jump.length; ++i) {
+            Object arm = constants.get((double)(jumpFrom + i));
+            jump[i] = arm == null ? arms : (Integer)arm;
+        }
+    }
+
+    // The case subject selects, else the else arm, or null if there is none.
+    static Stmt select(Stmt.Match stmt, Object subject, Interpreter interpreter, Environment environment, Environment module) {
+        MatchTable table = stmt.table;
+        if (table == null) stmt.table = table = compile(stmt);
+
+        int arm = table.find(subject);
+        for (int i = 0; i < table.patterns.length && table.patternArms[i] < arm; ++i) {
+            if (same(subject, interpreter.evaluate(table.patterns[i], environment, module))) {
+                arm = table.patternArms[i];
+                break;
+            }
+        }
+        return arm < table.arms ? stmt.cases.get(arm) : stmt.otherwise;
+    }
+
+    // The first arm with a constant pattern equal to subject, or arms if none.
+    private int find(Object subject) {
+        if (jump != null && subject instanceof Double) {
+            // every number pattern is in the jump table
+            double value = (Double)subject;
+            int index = (int)value - jumpFrom;
+            if (value != (int)value || index < 0 || index >= jump.length) return arms;
+            if (Double.doubleToRawLongBits(value) == NEGATIVE_ZERO) return arms;
+            return jump[index];
+        }
+
+        Object arm = constants.get(subject);
+        return arm == null ? arms : (Integer)arm;
+    }
+
+    // Literals, parenthesized or negated.
+    private static Object constant(Expr pattern) {
+        if (pattern instanceof Expr.Grouping) return constant(((Expr.Grouping)pattern).expression);
+        if (pattern instanceof Expr.Literal) return ((Expr.Literal)pattern).value;
+        if (pattern instanceof Expr.Unary && ((Expr.Unary)pattern).operator.type == TokenType.MINUS) {
+            Object operand = constant(((Expr.Unary)pattern).right);
+            if (operand instanceof Double) return -(Double)operand;
+        }
+        return NOT_CONSTANT;
+    }
+
+    // Equal as map keys: numbers and strings that spell them by value, other
+    // strings by contents, nil and booleans by value, anything else by identity.
+    private static boolean same(Object subject, Object pattern) {
+        long number = LoxMap.numberKey(subject);
+        if (number != LoxMap.NO_NUMBER) return number == LoxMap.numberKey(pattern);
+
+        subject = LoxRope.flatten(subject);
+        pattern = LoxRope.flatten(pattern);
+        if (subject == pattern) return true;
+        if (subject instanceof String || subject instanceof Boolean) return subject.equals(pattern);
+        return false;
+    }
+}
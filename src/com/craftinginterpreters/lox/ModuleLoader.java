@@ -0,0 +1,201 @@
+package com.craftinginterpreters.lox;
+
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+
+// Compiles a module and everything it imports before any of it runs. Each file
+// is scanned, parsed and resolved on the common fork-join pool as soon as an
+// import of it is discovered, so independent modules go through the front end
+// in parallel. At run time every module executes at most once and its
+// namespace is cached.
+class ModuleLoader {
+    private class CompileTask extends RecursiveAction {
+        final Path path;
+        private final String source;
+        // the import that found this file and where to report its errors;
+        // null for the main script, whose errors are the engine's
+        private final Stmt.Import from;
+        private final ErrorReporter importer;
+        private final ErrorReporter errors;
+        List<Stmt> statements;
+        long scanNanos;
+        long parseNanos;
+        long resolveNanos;
+        String thread;
+
+        CompileTask(Path path, String source, Stmt.Import from, ErrorReporter importer) {
+            this.path = path;
+            this.source = source;
+            this.from = from;
+            this.importer = importer;
+            this.errors = from == null ? interpreter.errors : interpreter.errors.forFile(name(path));
+        }
+
+        @Override
+        protected void compute() {
+            thread = Thread.currentThread().getName();
+
+            String text = source;
+            if (text == null) {
+                try {
+                    text = new String(Files.readAllBytes(path), Charset.defaultCharset());
+                } catch (IOException error) {
+                    importer.error(from.path, "Cannot read module '" + from.path.literal + "'.");
+                    return;
+                }
+            }
+
+            long start = System.nanoTime();
+            List<Token> tokens = new Scanner(text, errors).scanTokens();
+            scanNanos = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            statements = new Parser(tokens, errors).parse();
+            parseNanos = System.nanoTime() - start;
+
+            // imports are top-level only, so the dependency edges are known right after parsing
+            for (Stmt statement : statements) {
+                if (statement instanceof Stmt.Import) {
+                    discover((Stmt.Import)statement, path.getParent(), errors);
+                }
+            }
+
+            if (interpreter.errors.hadError) return;
+
+            start = System.nanoTime();
+            new Resolver(errors).resolve(statements);
+            resolveNanos = System.nanoTime() - start;
+        }
+    }
+
+    private final Interpreter interpreter;
+    private final Map<Path, CompileTask> tasks = new ConcurrentHashMap<>();
+    private final Map<Stmt.Import, Path> targets = new ConcurrentHashMap<>();
+    private final Map<Path, LoxModule> loaded = new HashMap<>();
+    private final Set<Path> loading = new HashSet<>();
+    // base for imports not seen by an up-front compile: the main script's directory or the REPL's
+    Path directory = Paths.get("");
+
+    ModuleLoader(Interpreter interpreter) {
+        this.interpreter = interpreter;
+    }
+
+    // Compiles the script at path (whose text is already in source) together
+    // with all of its transitive imports. Returns null if anything had errors.
+    List<Stmt> compile(Path path, String source) {
+        path = path.toAbsolutePath().normalize();
+        CompileTask task = new CompileTask(path, source, null, null);
+        tasks.put(path, task);
+        submit(task);
+        awaitAll();
+
+        if (interpreter.errors.hadError) return null;
+        return task.statements;
+    }
+
+    // Synchronized because spawned tasks import too; the module body runs on
+    // the importing task's interpreter.
+    synchronized LoxModule load(Stmt.Import stmt, Interpreter runner) {
+        Path path = targets.get(stmt);
+        if (path == null) {
+            // not seen by an up-front compile, e.g. an import typed at the REPL
+            discover(stmt, directory, interpreter.errors);
+            awaitAll();
+            path = targets.get(stmt);
+            if (path == null || interpreter.errors.hadError) {
+                throw new RuntimeError(stmt.path, "Could not load module '" + stmt.path.literal + "'.");
+            }
+        }
+
+        LoxModule module = loaded.get(path);
+        if (module != null) return module;
+
+        if (loading.contains(path)) {
+            throw new RuntimeError(stmt.path, "Circular import of '" + stmt.path.literal + "'.");
+        }
+
+        loading.add(path);
+        try {
+            Environment scope = runner.executeModule(tasks.get(path).statements);
+            module = new LoxModule(stmt.name.lexeme, scope);
+            loaded.put(path, module);
+            return module;
+        } finally {
+            loading.remove(path);
+        }
+    }
+
+    // Marks the entry script at path as running, so that a module importing
+    // it back is a circular import rather than a second run of it.
+    synchronized void enter(Path path) {
+        loading.add(path.toAbsolutePath().normalize());
+    }
+
+    synchronized void leave(Path path) {
+        loading.remove(path.toAbsolutePath().normalize());
+    }
+
+    // How diagnostics name a module: relative to the main script's directory
+    // when it is under it.
+    private String name(Path path) {
+        Path base = directory.toAbsolutePath().normalize();
+        return path.startsWith(base) ? base.relativize(path).toString() : path.toString();
+    }
+
+    private void discover(Stmt.Import stmt, Path directory, ErrorReporter importer) {
+        Path target = directory.resolve((String)stmt.path.literal).toAbsolutePath().normalize();
+        if (!Files.isRegularFile(target)) {
+            importer.error(stmt.path, "Cannot find module '" + stmt.path.literal + "'.");
+            return;
+        }
+
+        targets.put(stmt, target);
+
+        CompileTask task = new CompileTask(target, null, stmt, importer);
+        if (tasks.putIfAbsent(target, task) == null) {
+            submit(task);
+        }
+    }
+
+    private void submit(CompileTask task) {
+        if (ForkJoinTask.inForkJoinPool()) {
+            task.fork();
+        } else {
+            ForkJoinPool.commonPool().execute(task);
+        }
+    }
+
+    // Tasks fork their imports before they finish, so once every known task
+    // has been joined without the set growing, the whole graph is compiled.
+    private void awaitAll() {
+        int joined = -1;
+        while (joined != tasks.size()) {
+            joined = tasks.size();
+            for (CompileTask task : new ArrayList<>(tasks.values())) {
+                task.join();
+            }
+        }
+
+        if (Boolean.getBoolean("lox.modules.stats")) {
+            List<CompileTask> all = new ArrayList<>(tasks.values());
+            all.sort((a, b) -> a.path.compareTo(b.path));
+            for (CompileTask task : all) {
+                System.err.println(String.format("[module] %s: scan %.3f ms, parse %.3f ms, resolve %.3f ms (%s)",
+                    task.path, task.scanNanos / 1e6, task.parseNanos / 1e6, task.resolveNanos / 1e6, task.thread));
+            }
+        }
+    }
+}
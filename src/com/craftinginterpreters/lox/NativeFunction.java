@@ -0,0 +1,24 @@
+package com.craftinginterpreters.lox;
+
+// Base for natives with a fixed name and arity, such as the methods of
+// channels and arrays. Errors they throw without a token are reported at the
+// call site by Interpreter.call().
+abstract class NativeFunction implements LoxCallable {
+    private final String name;
+    private final int arity;
+
+    NativeFunction(String name, int arity) {
+        this.name = name;
+        this.arity = arity;
+    }
+
+    @Override
+    public int arity() {
+        return arity;
+    }
+
+    @Override
+    public String toString() {
+        return "<native fn " + name + ">";
+    }
+}
@@ -0,0 +1,386 @@
+package com.craftinginterpreters.lox;
+
+import java.math.BigInteger;
+
+// Formatting and parsing of Lox numbers. Both have a fast path for the common
+// cases (integral values when printing, short plain decimals when parsing).
+// Other numbers are printed with the fewest digits that read back as the
+// same double (the Schubfach algorithm, which is what Double.toString uses
+// from JDK 19), written straight into the caller's builder. Other text is
+// parsed by Double.parseDouble.
+//
+// recognize() answers "is this string a number, and which" without throwing,
+// and numberBits() remembers the answer for strings that keep coming back,
+// which is what comparing numbers with strings in a loop does.
+class Numbers {
+    // Double.doubleToLongBits folds every NaN into one pattern, so this
+    // signalling NaN never stands for a real number.
+    static final long NOT_A_NUMBER = 0x7ff0000000000001L;
+
+    // Double.toString switches to scientific notation at 10^7.
+    private static final double PLAIN_LIMIT = 1e7;
+
+    // The double format: 52 stored significand bits, biased exponents up to
+    // 2047, and the exponent of the smallest subnormal.
+    private static final int SIGNIFICAND_BITS = 52;
+    private static final long SIGNIFICAND_MASK = (1L << SIGNIFICAND_BITS) - 1;
+    private static final int EXPONENT_MASK = 0x7ff;
+    private static final int MIN_EXPONENT = -1074;
+    private static final long HIDDEN_BIT = 1L << SIGNIFICAND_BITS;
+    // subnormal significands below this need one more digit of precision
+    private static final long TINY = 3;
+    private static final long MASK_63 = (1L << 63) - 1;
+
+    // The powers of ten shortest() scales by, made the first time each is
+    // needed, since a script only ever prints numbers of a few magnitudes.
+    // Entries are immutable, so racing threads at worst make one twice.
+    private static final int MIN_K = -324;
+    private static final int MAX_K = 292;
+    private static final Power[] POWERS = new Power[MAX_K - MIN_K + 1];
+
+    private static final class Power {
+        final long high;
+        final long low;
+
+        Power(long high, long low) {
+            this.high = high;
+            this.low = low;
+        }
+    }
+
+    // Every power of ten up to 10^22 is exact as a double.
+    private static final double[] POWERS_OF_TEN = {
+        1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+        1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22
+    };
+
+    // A long holding at most 15 decimal digits is below 2^53 and so exact.
+    private static final int MAX_FAST_DIGITS = 15;
+
+    // Direct-mapped by the string's own cached hash and checked by identity,
+    // so a hit is a couple of field reads. Entries are immutable; racing
+    // threads at worst overwrite each other and recognize again. Only short
+    // strings are kept, so the table never pins much memory.
+    private static final int RECOGNIZED_SIZE = 1024;
+    private static final int MAX_RECOGNIZED_LENGTH = 64;
+    private static final Recognized[] RECOGNIZED = new Recognized[RECOGNIZED_SIZE];
+
+    private static final class Recognized {
+        final String text;
+        final long bits;
+
+        Recognized(String text, long bits) {
+            this.text = text;
+            this.bits = bits;
+        }
+    }
+
+    private Numbers() {}
+
+    static String format(double value) {
+        if (isPlainIntegral(value)) return Long.toString((long)value);
+        StringBuilder builder = new StringBuilder(24);
+        appendShortest(builder, value);
+        return builder.toString();
+    }
+
+    // Appends the formatted number without creating an intermediate String.
+    static void append(StringBuilder builder, double value) {
+        if (isPlainIntegral(value)) {
+            builder.append((long)value);
+        } else {
+            appendShortest(builder, value);
+        }
+    }
+
+    // Parses text[start, end) the way Double.parseDouble would, without
+    // copying the span when it is a plain decimal of up to 15 digits.
+    static double parse(CharSequence text, int start, int end) {
+        int i = start;
+        boolean negative = false;
+        if (i < end && (text.charAt(i) == '-' || text.charAt(i) == '+')) {
+            negative = text.charAt(i) == '-';
+            i++;
+        }
+
+        long mantissa = 0;
+        int digits = 0;
+        int fractionDigits = 0;
+        boolean sawDigit = false;
+        boolean sawDot = false;
+
+        for (; i < end; ++i) {
+            char c = text.charAt(i);
+            if (c >= '0' && c <= '9') {
+                sawDigit = true;
+                if (mantissa != 0 || c != '0') digits++;
+                if (digits > MAX_FAST_DIGITS) return parseSlow(text, start, end);
+                mantissa = mantissa * 10 + (c - '0');
+                if (sawDot) fractionDigits++;
+            } else if (c == '.' && !sawDot) {
+                sawDot = true;
+            } else {
+                return parseSlow(text, start, end);
+            }
+        }
+
+        if (!sawDigit || fractionDigits >= POWERS_OF_TEN.length) return parseSlow(text, start, end);
+
+        // both operands are exact, so the one division rounds correctly
+        double value = fractionDigits == 0 ? mantissa : mantissa / POWERS_OF_TEN[fractionDigits];
+        return negative ? -value : value;
+    }
+
+    // The bits of the number text spells, or NOT_A_NUMBER, remembered for
+    // the next time the same String object is asked about.
+    static long numberBits(String text) {
+        if (text.length() > MAX_RECOGNIZED_LENGTH) return recognize(text);
+
+        int hash = text.hashCode();
+        int slot = (hash ^ (hash >>> 16)) & (RECOGNIZED_SIZE - 1);
+        Recognized entry = RECOGNIZED[slot];
+        if (entry != null && entry.text == text) return entry.bits;
+
+        long bits = recognize(text);
+        RECOGNIZED[slot] = new Recognized(text, bits);
+        return bits;
+    }
+
+    // The bits of the number text spells under Double.parseDouble's grammar,
+    // or NOT_A_NUMBER. Only text already known to be well formed is parsed.
+    static long recognize(CharSequence text) {
+        int start = 0;
+        int end = text.length();
+        // parseDouble trims the same way String.trim does
+        while (start < end && text.charAt(start) <= ' ') start++;
+        while (end > start && text.charAt(end - 1) <= ' ') end--;
+        if (!isWellFormed(text, start, end)) return NOT_A_NUMBER;
+        return Double.doubleToLongBits(parse(text, start, end));
+    }
+
+    private static boolean isWellFormed(CharSequence text, int start, int end) {
+        int i = start;
+        if (i < end && (text.charAt(i) == '-' || text.charAt(i) == '+')) i++;
+        if (i == end) return false;
+
+        if (matches(text, i, end, "NaN") || matches(text, i, end, "Infinity")) return true;
+        if (end - i > 2 && text.charAt(i) == '0' && (text.charAt(i + 1) == 'x' || text.charAt(i + 1) == 'X')) {
+            return isWellFormedHex(text, i + 2, end);
+        }
+
+        int digits = 0;
+        while (i < end && isDigit(text.charAt(i))) { i++; digits++; }
+        if (i < end && text.charAt(i) == '.') {
+            i++;
+            while (i < end && isDigit(text.charAt(i))) { i++; digits++; }
+        }
+        if (digits == 0) return false;
+
+        if (i < end && (text.charAt(i) == 'e' || text.charAt(i) == 'E')) {
+            i = exponentEnd(text, i + 1, end);
+            if (i < 0) return false;
+        }
+        return i == end || (i == end - 1 && isSuffix(text.charAt(i)));
+    }
+
+    // 0x<hex digits>[.<hex digits>]p<exponent>, after the "0x".
+    private static boolean isWellFormedHex(CharSequence text, int i, int end) {
+        int digits = 0;
+        while (i < end && isHexDigit(text.charAt(i))) { i++; digits++; }
+        if (i < end && text.charAt(i) == '.') {
+            i++;
+            while (i < end && isHexDigit(text.charAt(i))) { i++; digits++; }
+        }
+        if (digits == 0 || i == end || (text.charAt(i) != 'p' && text.charAt(i) != 'P')) return false;
+
+        i = exponentEnd(text, i + 1, end);
+        if (i < 0) return false;
+        return i == end || (i == end - 1 && isSuffix(text.charAt(i)));
+    }
+
+    // Where a signed exponent starting at i ends, or -1 if it has no digits.
+    private static int exponentEnd(CharSequence text, int i, int end) {
+        if (i < end && (text.charAt(i) == '-' || text.charAt(i) == '+')) i++;
+        int first = i;
+        while (i < end && isDigit(text.charAt(i))) i++;
+        return i == first ? -1 : i;
+    }
+
+    private static boolean matches(CharSequence text, int i, int end, String word) {
+        if (end - i != word.length()) return false;
+        for (int j = 0; j < word.length(); ++j) {
+            if (text.charAt(i + j) != word.charAt(j)) return false;
+        }
+        return true;
+    }
+
+    private static boolean isDigit(char c) {
+        return c >= '0' && c <= '9';
+    }
+
+    private static boolean isHexDigit(char c) {
+        return isDigit(c) || (c >= 'a' && c <= 'f') || (c >= 'A' && c <= 'F');
+    }
+
+    // parseDouble ignores a trailing float or double suffix
+    private static boolean isSuffix(char c) {
+        return c == 'f' || c == 'F' || c == 'd' || c == 'D';
+    }
+
+    private static boolean isPlainIntegral(double value) {
+        if (value <= -PLAIN_LIMIT || value >= PLAIN_LIMIT) return false;
+        if (value != (long)value) return false;
+        // -0.0 prints as "-0"
+        return value != 0 || Double.doubleToRawLongBits(value) == 0;
+    }
+
+    // Double.toString's layout for the shortest decimal, minus a trailing
+    // ".0": plain from 10^-3 up to 10^7, d.dddE<n> outside that.
+    private static void appendShortest(StringBuilder builder, double value) {
+        long bits = Double.doubleToRawLongBits(value);
+        long fraction = bits & SIGNIFICAND_MASK;
+        int biased = (int)(bits >>> SIGNIFICAND_BITS) & EXPONENT_MASK;
+        if (biased == EXPONENT_MASK) {
+            builder.append(fraction != 0 ? "NaN" : bits > 0 ? "Infinity" : "-Infinity");
+            return;
+        }
+        if (bits < 0) builder.append('-');
+        if (biased == 0 && fraction == 0) {
+            builder.append('0');
+            return;
+        }
+
+        if (biased != 0) {
+            int q = MIN_EXPONENT - 1 + biased;
+            long c = HIDDEN_BIT | fraction;
+            // an integer below 2^53 is its own shortest decimal
+            if (q < 0 && q > -SIGNIFICAND_BITS - 1 && (c >> -q) << -q == c) {
+                appendDecimal(builder, c >> -q, 0);
+            } else {
+                shortest(builder, q, c, 0);
+            }
+        } else if (fraction < TINY) {
+            shortest(builder, MIN_EXPONENT, 10 * fraction, -1);
+        } else {
+            shortest(builder, MIN_EXPONENT, fraction, 0);
+        }
+    }
+
+    // Schubfach: of the decimals that round to c * 2^q, the one with the
+    // fewest digits, and of those the closest (ties to even). See Giulietti,
+    // "The Schubfach way to render doubles", 2020.
+    private static void shortest(StringBuilder builder, int q, long c, int dk) {
+        int out = (int)c & 1;
+        long cb = c << 2;
+        long cbr = cb + 2;
+        long cbl;
+        int k;
+        if (c != HIDDEN_BIT || q == MIN_EXPONENT) {
+            cbl = cb - 2;
+            k = floorLog10Pow2(q);
+        } else {
+            // the gap below a power of two is half the gap above it
+            cbl = cb - 1;
+            k = floorLog10ThreeQuartersPow2(q);
+        }
+        int h = q + floorLog2Pow10(-k) + 2;
+
+        Power g = power(k);
+        long vb = roundOdd(g.high, g.low, cb << h);
+        long vbl = roundOdd(g.high, g.low, cbl << h);
+        long vbr = roundOdd(g.high, g.low, cbr << h);
+
+        long s = vb >> 2;
+        if (s >= 100) {
+            // try one digit fewer first: s rounded down to a multiple of ten
+            long sp10 = 10 * Math.multiplyHigh(s, 115_292_150_460_684_698L << 4);
+            long tp10 = sp10 + 10;
+            boolean upin = vbl + out <= sp10 << 2;
+            boolean wpin = (tp10 << 2) + out <= vbr;
+            if (upin != wpin) {
+                appendDecimal(builder, upin ? sp10 : tp10, k + dk);
+                return;
+            }
+        }
+
+        long t = s + 1;
+        boolean uin = vbl + out <= s << 2;
+        boolean win = (t << 2) + out <= vbr;
+        if (uin != win) {
+            appendDecimal(builder, uin ? s : t, k + dk);
+            return;
+        }
+        long cmp = vb - (s + t << 1);
+        appendDecimal(builder, cmp < 0 || cmp == 0 && (s & 1) == 0 ? s : t, k + dk);
+    }
+
+    // The product of g (g1 * 2^63 + g0) and cp, shifted right by 127 and
+    // rounded to odd.
+    private static long roundOdd(long g1, long g0, long cp) {
+        long x1 = Math.multiplyHigh(g0, cp);
+        long y0 = g1 * cp;
+        long y1 = Math.multiplyHigh(g1, cp);
+        long z = (y0 >>> 1) + x1;
+        long vbp = y1 + (z >>> 63);
+        return vbp | (z & MASK_63) + MASK_63 >>> 63;
+    }
+
+    private static int floorLog10Pow2(int e) {
+        return (int)(e * 661_971_961_083L >> 41);
+    }
+
+    private static int floorLog10ThreeQuartersPow2(int e) {
+        return (int)(e * 661_971_961_083L - 274_743_187_321L >> 41);
+    }
+
+    private static int floorLog2Pow10(int e) {
+        return (int)(e * 913_124_641_741L >> 38);
+    }
+
+    // Writes digits * 10^exponent.
+    private static void appendDecimal(StringBuilder builder, long digits, int exponent) {
+        while (digits % 10 == 0) {
+            digits /= 10;
+            exponent++;
+        }
+        int length = 1;
+        for (long rest = digits / 10; rest != 0; rest /= 10) length++;
+        // the power of ten of the first digit
+        int scientific = exponent + length - 1;
+
+        int start = builder.length();
+        builder.append(digits);
+        if (scientific >= 7 || scientific < -3) {
+            if (length == 1) builder.append(".0");
+            else builder.insert(start + 1, '.');
+            builder.append('E').append(scientific);
+        } else if (scientific < 0) {
+            builder.insert(start, "0.000", 0, 1 - scientific);
+        } else if (exponent < 0) {
+            builder.insert(start + scientific + 1, '.');
+        } else {
+            for (int i = 0; i < exponent; ++i) builder.append('0');
+        }
+    }
+
+    // g for 10^-k: with 10^-k = beta * 2^r and 2^125 <= beta < 2^126, g is
+    // floor(beta) + 1, kept as its high and low 63 bits.
+    private static Power power(int k) {
+        Power power = POWERS[k - MIN_K];
+        if (power != null) return power;
+
+        int shift = 125 - floorLog2Pow10(-k);
+        // a negative shift is a right shift, which floors
+        BigInteger beta = k <= 0
+            ? BigInteger.TEN.pow(-k).shiftLeft(shift)
+            : BigInteger.ONE.shiftLeft(shift).divide(BigInteger.TEN.pow(k));
+        BigInteger g = beta.add(BigInteger.ONE);
+        power = new Power(g.shiftRight(63).longValue(), g.longValue() & MASK_63);
+        POWERS[k - MIN_K] = power;
+        return power;
+    }
+
+    private static double parseSlow(CharSequence text, int start, int end) {
+        return Double.parseDouble(text.subSequence(start, end).toString());
+    }
+}
@@ -0,0 +1,383 @@
+package com.craftinginterpreters.lox;
+
+import java.util.Arrays;
+import java.util.List;
+
+// The addArrays, multiplyArrays, scaleArray, dot, sum, min, max and
+// mapNumbers natives. They work on arrays of numbers straight out of the
+// double[] a numeric LoxArray keeps, with plain counted loops that C2 turns
+// into SIMD code for the element-wise operations. The reductions keep four
+// running partial results, so sum and dot may differ from a left-to-right
+// loop in the last bits.
+//
+// mapNumbers compiles a function whose body is 'return <expression>;' over
+// its parameter, number literals, captured numbers and + - * / into kernels
+// that each run a whole block of elements at a time. Any other function is
+// simply called once per element.
+class NumericArrays {
+    private static final int BLOCK = 512;
+
+    static void define(Environment natives) {
+        natives.define("addArrays", new NativeFunction("addArrays", 2) {
+            @Override
+            public Object call(Interpreter interpreter, List<Object> arguments) {
+                int n = sameLength(arguments, "addArrays");
+                double[] a = numbers(arguments.get(0));
+                double[] b = numbers(arguments.get(1));
+                double[] result = new double[n];
+                for (int i = 0; i < n; ++i) {
+                    result[i] = a[i] + b[i];
+                }
+                return LoxArray.ofNumbers(result, n);
+            }
+        });
+        natives.define("multiplyArrays", new NativeFunction("multiplyArrays", 2) {
+            @Override
+            public Object call(Interpreter interpreter, List<Object> arguments) {
+                int n = sameLength(arguments, "multiplyArrays");
+                double[] a = numbers(arguments.get(0));
+                double[] b = numbers(arguments.get(1));
+                double[] result = new double[n];
+                for (int i = 0; i < n; ++i) {
+                    result[i] = a[i] * b[i];
+                }
+                return LoxArray.ofNumbers(result, n);
+            }
+        });
+        natives.define("scaleArray", new NativeFunction("scaleArray", 2) {
+            @Override
+            public Object call(Interpreter interpreter, List<Object> arguments) {
+                int n = size(arguments.get(0), "scaleArray");
+                if (!(arguments.get(1) instanceof Double)) {
+                    throw new RuntimeError(null, "scaleArray expects a number to scale by.");
+                }
+                double[] a = numbers(arguments.get(0));
+                double factor = (Double)arguments.get(1);
+                double[] result = new double[n];
+                for (int i = 0; i < n; ++i) {
+                    result[i] = a[i] * factor;
+                }
+                return LoxArray.ofNumbers(result, n);
+            }
+        });
+        natives.define("dot", new NativeFunction("dot", 2) {
+            @Override
+            public Object call(Interpreter interpreter, List<Object> arguments) {
+                int n = sameLength(arguments, "dot");
+                return dot(numbers(arguments.get(0)), numbers(arguments.get(1)), n);
+            }
+        });
+        natives.define("sum", new NativeFunction("sum", 1) {
+            @Override
+            public Object call(Interpreter interpreter, List<Object> arguments) {
+                int n = size(arguments.get(0), "sum");
+                return sum(numbers(arguments.get(0)), n);
+            }
+        });
+        natives.define("min", new NativeFunction("min", 1) {
+            @Override
+            public Object call(Interpreter interpreter, List<Object> arguments) {
+                int n = size(arguments.get(0), "min");
+                return extreme(numbers(arguments.get(0)), n, false);
+            }
+        });
+        natives.define("max", new NativeFunction("max", 1) {
+            @Override
+            public Object call(Interpreter interpreter, List<Object> arguments) {
+                int n = size(arguments.get(0), "max");
+                return extreme(numbers(arguments.get(0)), n, true);
+            }
+        });
+        natives.define("mapNumbers", new NativeFunction("mapNumbers", 2) {
+            @Override
+            public Object call(Interpreter interpreter, List<Object> arguments) {
+                int n = size(arguments.get(0), "mapNumbers");
+                Object function = arguments.get(1);
+                if (!(function instanceof LoxCallable) || ((LoxCallable)function).arity() != 1) {
+                    throw new RuntimeError(null, "mapNumbers expects a function of 1 argument.");
+                }
+
+                double[] a = numbers(arguments.get(0));
+                Kernel kernel = function instanceof LoxFunction ? compile((LoxFunction)function) : null;
+                if (kernel == null) return mapByCalls(interpreter, a, n, (LoxCallable)function);
+
+                double[] result = new double[n];
+                try {
+                    for (int from = 0; from < n; from += BLOCK) {
+                        kernel.eval(a, from, Math.min(BLOCK, n - from), result, from);
+                    }
+                } catch (RuntimeError error) {
+                    // backtraced as if the function had been called
+                    if (interpreter.tracing()) error.leaving(((LoxFunction)function).declaration.name.lexeme);
+                    throw error;
+                }
+                return LoxArray.ofNumbers(result, n);
+            }
+        });
+    }
+
+    private static double dot(double[] a, double[] b, int n) {
+        double s0 = 0, s1 = 0, s2 = 0, s3 = 0;
+        int i = 0;
+        for (; i + 3 < n; i += 4) {
+            s0 += a[i] * b[i];
+            s1 += a[i + 1] * b[i + 1];
+            s2 += a[i + 2] * b[i + 2];
+            s3 += a[i + 3] * b[i + 3];
+        }
+        for (; i < n; ++i) {
+            s0 += a[i] * b[i];
+        }
+        return (s0 + s1) + (s2 + s3);
+    }
+
+    private static double sum(double[] a, int n) {
+        double s0 = 0, s1 = 0, s2 = 0, s3 = 0;
+        int i = 0;
+        for (; i + 3 < n; i += 4) {
+            s0 += a[i];
+            s1 += a[i + 1];
+            s2 += a[i + 2];
+            s3 += a[i + 3];
+        }
+        for (; i < n; ++i) {
+            s0 += a[i];
+        }
+        return (s0 + s1) + (s2 + s3);
+    }
+
+    // The smallest or largest element, or nil for an empty array. NaN wins
+    // over everything, as in Math.min and Math.max.
+    private static Object extreme(double[] a, int n, boolean largest) {
+        if (n == 0) return null;
+
+        double m0 = a[0], m1 = a[0], m2 = a[0], m3 = a[0];
+        int i = 0;
+        for (; i + 3 < n; i += 4) {
+            if (largest) {
+                m0 = Math.max(m0, a[i]);
+                m1 = Math.max(m1, a[i + 1]);
+                m2 = Math.max(m2, a[i + 2]);
+                m3 = Math.max(m3, a[i + 3]);
+            } else {
+                m0 = Math.min(m0, a[i]);
+                m1 = Math.min(m1, a[i + 1]);
+                m2 = Math.min(m2, a[i + 2]);
+                m3 = Math.min(m3, a[i + 3]);
+            }
+        }
+        for (; i < n; ++i) {
+            m0 = largest ? Math.max(m0, a[i]) : Math.min(m0, a[i]);
+        }
+        return largest ? Math.max(Math.max(m0, m1), Math.max(m2, m3)) : Math.min(Math.min(m0, m1), Math.min(m2, m3));
+    }
+
+    private static LoxArray mapByCalls(Interpreter interpreter, double[] a, int n, LoxCallable function) {
+        Object[] results = new Object[n];
+        for (int i = 0; i < n; ++i) {
+            results[i] = function.call(interpreter, Arrays.asList(a[i]));
+        }
+        return LoxArray.of(results, results.length);
+    }
+
+    // Checks that value is an array of numbers and returns its size.
+    private static int size(Object value, String name) {
+        if (value instanceof LoxArray) {
+            LoxArray array = (LoxArray)value;
+            if (array.isNumeric()) return array.size();
+
+            // numbers stored after something else made it an Object[] array
+            boolean allNumbers = true;
+            for (int i = 0; i < array.size() && allNumbers; ++i) {
+                allNumbers = array.get(i) instanceof Double;
+            }
+            if (allNumbers) return array.size();
+        }
+        throw new RuntimeError(null, name + " expects an array of numbers.");
+    }
+
+    private static int sameLength(List<Object> arguments, String name) {
+        int n = size(arguments.get(0), name);
+        if (size(arguments.get(1), name) != n) {
+            throw new RuntimeError(null, name + " expects arrays of the same length.");
+        }
+        return n;
+    }
+
+    // The elements of an array size() has accepted: a numeric array's own
+    // storage, which may be longer than the array, or an unboxed copy.
+    private static double[] numbers(Object value) {
+        LoxArray array = (LoxArray)value;
+        if (array.isNumeric()) return array.numbers();
+
+        double[] numbers = new double[array.size()];
+        for (int i = 0; i < numbers.length; ++i) {
+            numbers[i] = (Double)array.get(i);
+        }
+        return numbers;
+    }
+
+    // Computes out[at + i] = f(in[from + i]) for i < count, count <= BLOCK.
+    private abstract static class Kernel {
+        abstract void eval(double[] in, int from, int count, double[] out, int at);
+    }
+
+    private static class Parameter extends Kernel {
+        @Override
+        void eval(double[] in, int from, int count, double[] out, int at) {
+            System.arraycopy(in, from, out, at, count);
+        }
+    }
+
+    private static class Constant extends Kernel {
+        final double value;
+
+        Constant(double value) {
+            this.value = value;
+        }
+
+        @Override
+        void eval(double[] in, int from, int count, double[] out, int at) {
+            Arrays.fill(out, at, at + count, value);
+        }
+    }
+
+    private static class Negate extends Kernel {
+        private final Kernel operand;
+
+        Negate(Kernel operand) {
+            this.operand = operand;
+        }
+
+        @Override
+        void eval(double[] in, int from, int count, double[] out, int at) {
+            operand.eval(in, from, count, out, at);
+            for (int i = at; i < at + count; ++i) {
+                out[i] = -out[i];
+            }
+        }
+    }
+
+    private static class Arithmetic extends Kernel {
+        private final Token operator;
+        private final Kernel left;
+        private final Kernel right;
+        // the right operand's block; unused when it is a constant
+        private final double[] scratch;
+
+        Arithmetic(Token operator, Kernel left, Kernel right) {
+            this.operator = operator;
+            this.left = left;
+            this.right = right;
+            this.scratch = right instanceof Constant ? null : new double[BLOCK];
+        }
+
+        @Override
+        void eval(double[] in, int from, int count, double[] out, int at) {
+            left.eval(in, from, count, out, at);
+            if (right instanceof Constant) {
+                apply(out, at, count, ((Constant)right).value);
+                return;
+            }
+
+            right.eval(in, from, count, scratch, 0);
+            double[] b = scratch;
+            switch (operator.type) {
+                case PLUS:
+                    for (int i = 0; i < count; ++i) out[at + i] += b[i];
+                    break;
+                case MINUS:
+                    for (int i = 0; i < count; ++i) out[at + i] -= b[i];
+                    break;
+                case STAR:
+                    for (int i = 0; i < count; ++i) out[at + i] *= b[i];
+                    break;
+                default:
+                    for (int i = 0; i < count; ++i) {
+                        if (b[i] == 0.0) throw new RuntimeError(operator, "Division by zero is illegal.");
+                    }
+                    for (int i = 0; i < count; ++i) out[at + i] /= b[i];
+                    break;
+            }
+        }
+
+        private void apply(double[] out, int at, int count, double b) {
+            switch (operator.type) {
+                case PLUS:
+                    for (int i = at; i < at + count; ++i) out[i] += b;
+                    break;
+                case MINUS:
+                    for (int i = at; i < at + count; ++i) out[i] -= b;
+                    break;
+                case STAR:
+                    for (int i = at; i < at + count; ++i) out[i] *= b;
+                    break;
+                default:
+                    if (b == 0.0) throw new RuntimeError(operator, "Division by zero is illegal.");
+                    for (int i = at; i < at + count; ++i) out[i] /= b;
+                    break;
+            }
+        }
+    }
+
+    // A kernel for fun f(x) { return <expression>; }, or null if the body is
+    // anything else. Captured variables are read once, here.
+    private static Kernel compile(LoxFunction function) {
+        Stmt.Function declaration = function.declaration;
+        if (declaration.isGetter || function.isInitializer || declaration.body.size() != 1) return null;
+        if (!(declaration.body.get(0) instanceof Stmt.Return)) return null;
+
+        Expr value = ((Stmt.Return)declaration.body.get(0)).value;
+        return value == null ? null : compile(value, function);
+    }
+
+    private static Kernel compile(Expr expr, LoxFunction function) {
+        if (expr instanceof Expr.Grouping) return compile(((Expr.Grouping)expr).expression, function);
+
+        if (expr instanceof Expr.Literal) {
+            Object value = ((Expr.Literal)expr).value;
+            return value instanceof Double ? new Constant((Double)value) : null;
+        }
+
+        if (expr instanceof Expr.Variable) {
+            Expr.Variable variable = (Expr.Variable)expr;
+            // depth 0 is the call's own scope, which holds only the parameter
+            if (variable.depth == 0) return new Parameter();
+            Object value = captured(variable, function);
+            return value instanceof Double ? new Constant((Double)value) : null;
+        }
+
+        if (expr instanceof Expr.Unary) {
+            Expr.Unary unary = (Expr.Unary)expr;
+            if (unary.operator.type != TokenType.MINUS) return null;
+            Kernel operand = compile(unary.right, function);
+            return operand == null ? null : new Negate(operand);
+        }
+
+        if (expr instanceof Expr.Binary) {
+            Expr.Binary binary = (Expr.Binary)expr;
+            switch (binary.operator.type) {
+                case PLUS: case MINUS: case STAR: case SLASH:
+                    break;
+                default:
+                    return null;
+            }
+            Kernel left = compile(binary.left, function);
+            Kernel right = compile(binary.right, function);
+            if (left == null || right == null) return null;
+            return new Arithmetic(binary.operator, left, right);
+        }
+
+        return null;
+    }
+
+    private static Object captured(Expr.Variable variable, LoxFunction function) {
+        if (variable.depth > 0) return function.closure.getAt(variable.depth - 1, variable.name.lexeme);
+        try {
+            return function.module.get(variable.name);
+        } catch (RuntimeError error) {
+            // undefined; calling the function reports it properly
+            return null;
+        }
+    }
+}
@@ -0,0 +1,139 @@
+package com.craftinginterpreters.lox;
+
+import java.io.ByteArrayOutputStream;
+import java.io.FileDescriptor;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+// Buffered destination for 'print'. Unlike System.out it does not flush on
+// every line unless asked to. Spawned tasks share their engine's sink, so
+// each print is atomic with respect to the others.
+public class OutputSink {
+    public enum Flush {
+        NEWLINE,    // after every line, for interactive use
+        SIZE,       // whenever the buffer fills up
+        EXIT,       // only on an explicit flush(); the buffer grows as needed
+    }
+
+    public static final int DEFAULT_CAPACITY = 64 * 1024;
+
+    private final WritableByteChannel channel;
+    private final ByteArrayOutputStream memory;
+    private final Flush policy;
+    private final Charset charset;
+    private final boolean asciiCompatible;
+    private byte[] buffer;
+    private int size = 0;
+    private boolean error = false;
+
+    private OutputSink(WritableByteChannel channel, ByteArrayOutputStream memory, Flush policy, int capacity) {
+        this.channel = channel;
+        this.memory = memory;
+        this.policy = policy;
+        this.charset = memory != null ? StandardCharsets.UTF_8 : Charset.defaultCharset();
+        this.asciiCompatible = charset.equals(StandardCharsets.UTF_8)
+            || charset.equals(StandardCharsets.US_ASCII)
+            || charset.equals(StandardCharsets.ISO_8859_1);
+        this.buffer = new byte[capacity];
+    }
+
+    // Standard output, flushed per line when attached to a terminal.
+    public static OutputSink stdout() {
+        Flush policy = System.console() != null ? Flush.NEWLINE : Flush.SIZE;
+        return stdout(policy);
+    }
+
+    public static OutputSink stdout(Flush policy) {
+        FileOutputStream out = new FileOutputStream(FileDescriptor.out);
+        return new OutputSink(out.getChannel(), null, policy, DEFAULT_CAPACITY);
+    }
+
+    public static OutputSink channel(WritableByteChannel channel, Flush policy, int capacity) {
+        return new OutputSink(channel, null, policy, capacity);
+    }
+
+    // Collects UTF-8 output in memory; read it back with contents().
+    public static OutputSink memory() {
+        ByteArrayOutputStream memory = new ByteArrayOutputStream();
+        return new OutputSink(Channels.newChannel(memory), memory, Flush.EXIT, DEFAULT_CAPACITY);
+    }
+
+    public synchronized void print(String text) {
+        int length = text.length();
+        if (asciiCompatible && isAscii(text)) {
+            ensureCapacity(length);
+            for (int i = 0; i < length; ++i) {
+                buffer[size++] = (byte)text.charAt(i);
+            }
+        } else {
+            byte[] bytes = text.getBytes(charset);
+            ensureCapacity(bytes.length);
+            System.arraycopy(bytes, 0, buffer, size, bytes.length);
+            size += bytes.length;
+        }
+    }
+
+    public synchronized void println(String text) {
+        print(text);
+        ensureCapacity(1);
+        buffer[size++] = '\n';
+        if (policy == Flush.NEWLINE) flush();
+    }
+
+    public synchronized void flush() {
+        if (size == 0) return;
+
+        try {
+            ByteBuffer bytes = ByteBuffer.wrap(buffer, 0, size);
+            while (bytes.hasRemaining()) {
+                channel.write(bytes);
+            }
+        } catch (IOException e) {
+            // like PrintStream, report failures through checkError() rather than throwing
+            error = true;
+        }
+        size = 0;
+    }
+
+    public boolean checkError() {
+        return error;
+    }
+
+    public synchronized String contents() {
+        if (memory == null) throw new IllegalStateException("Not an in-memory sink.");
+        flush();
+        return new String(memory.toByteArray(), StandardCharsets.UTF_8);
+    }
+
+    // Returns what an in-memory sink collected since the last call and clears it.
+    synchronized String take() {
+        flush();
+        if (memory.size() == 0) return "";
+        String text = new String(memory.toByteArray(), StandardCharsets.UTF_8);
+        memory.reset();
+        return text;
+    }
+
+    private void ensureCapacity(int extra) {
+        if (size + extra <= buffer.length) return;
+
+        if (policy != Flush.EXIT) {
+            flush();
+            if (extra <= buffer.length) return;
+        }
+        buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2, size + extra));
+    }
+
+    private static boolean isAscii(String text) {
+        for (int i = 0; i < text.length(); ++i) {
+            if (text.charAt(i) >= 0x80) return false;
+        }
+        return true;
+    }
+}
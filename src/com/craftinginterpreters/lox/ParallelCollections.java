@@ -0,0 +1,202 @@
+package com.craftinginterpreters.lox;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+// The parallelMap, parallelFilter, parallelReduce and parallelSort natives.
+// Arrays of THRESHOLD or more elements are split into chunks that run on the
+// common ForkJoinPool. Every chunk calls the Lox function through its own
+// forked Interpreter, since an Interpreter tracks the current scope and is
+// not thread-safe. Smaller arrays are processed on the calling thread.
+//
+// All four return a new array and leave their argument alone. The order of
+// results is the order of the input, but the function may be called in any
+// order and from several threads at once, so it should not depend on state
+// it shares with other calls. parallelReduce's function must be associative.
+class ParallelCollections {
+    static final int THRESHOLD = 1024;
+    private static final int MIN_CHUNK = 256;
+
+    private interface Chunk<T> {
+        T run(Interpreter worker, int from, int to);
+    }
+
+    // Joins the results of the adjacent chunks [from, mid) and [mid, to).
+    private interface Combine<T> {
+        T apply(Interpreter worker, int from, int mid, int to, T left, T right);
+    }
+
+    private static class Split<T> extends RecursiveTask<T> {
+        private final Interpreter interpreter;
+        private final Chunk<T> chunk;
+        private final Combine<T> combine;
+        private final int from;
+        private final int to;
+        private final int grain;
+
+        Split(Interpreter interpreter, Chunk<T> chunk, Combine<T> combine, int from, int to, int grain) {
+            this.interpreter = interpreter;
+            this.chunk = chunk;
+            this.combine = combine;
+            this.from = from;
+            this.to = to;
+            this.grain = grain;
+        }
+
+        @Override
+        protected T compute() {
+            if (to - from <= grain) return chunk.run(interpreter.fork(), from, to);
+
+            int mid = (from + to) >>> 1;
+            Split<T> left = new Split<>(interpreter, chunk, combine, from, mid, grain);
+            left.fork();
+            T right = new Split<>(interpreter, chunk, combine, mid, to, grain).compute();
+            return combine.apply(interpreter.fork(), from, mid, to, left.join(), right);
+        }
+    }
+
+    static void define(Environment natives) {
+        natives.define("parallelMap", new NativeFunction("parallelMap", 2) {
+            @Override
+            public Object call(Interpreter interpreter, List<Object> arguments) {
+                return map(interpreter, array(arguments.get(0), "parallelMap"), function(arguments.get(1), 1, "parallelMap"));
+            }
+        });
+        natives.define("parallelFilter", new NativeFunction("parallelFilter", 2) {
+            @Override
+            public Object call(Interpreter interpreter, List<Object> arguments) {
+                return filter(interpreter, array(arguments.get(0), "parallelFilter"), function(arguments.get(1), 1, "parallelFilter"));
+            }
+        });
+        natives.define("parallelReduce", new NativeFunction("parallelReduce", 3) {
+            @Override
+            public Object call(Interpreter interpreter, List<Object> arguments) {
+                return reduce(interpreter, array(arguments.get(0), "parallelReduce"), function(arguments.get(1), 2, "parallelReduce"), arguments.get(2));
+            }
+        });
+        natives.define("parallelSort", new NativeFunction("parallelSort", 2) {
+            @Override
+            public Object call(Interpreter interpreter, List<Object> arguments) {
+                return sort(interpreter, array(arguments.get(0), "parallelSort"), function(arguments.get(1), 2, "parallelSort"));
+            }
+        });
+    }
+
+    private static LoxArray map(Interpreter interpreter, LoxArray array, LoxCallable function) {
+        Object[] results = new Object[array.size()];
+        split(interpreter, array.size(), (worker, from, to) -> {
+            for (int i = from; i < to; ++i) {
+                results[i] = function.call(worker, Arrays.asList(array.get(i)));
+            }
+            return null;
+        }, (worker, from, mid, to, left, right) -> null);
+        return LoxArray.of(results, results.length);
+    }
+
+    private static LoxArray filter(Interpreter interpreter, LoxArray array, LoxCallable predicate) {
+        boolean[] keep = new boolean[array.size()];
+        Integer kept = split(interpreter, array.size(), (worker, from, to) -> {
+            int count = 0;
+            for (int i = from; i < to; ++i) {
+                keep[i] = Interpreter.isTruthy(predicate.call(worker, Arrays.asList(array.get(i))));
+                if (keep[i]) count++;
+            }
+            return count;
+        }, (worker, from, mid, to, left, right) -> left + right);
+
+        Object[] results = new Object[kept];
+        int next = 0;
+        for (int i = 0; i < keep.length; ++i) {
+            if (keep[i]) results[next++] = array.get(i);
+        }
+        return LoxArray.of(results, results.length);
+    }
+
+    // Reduces each chunk from its first element, then folds the chunk results
+    // left to right, and finally applies the function to initial and that.
+    private static Object reduce(Interpreter interpreter, LoxArray array, LoxCallable function, Object initial) {
+        if (array.size() == 0) return initial;
+
+        Object total = split(interpreter, array.size(), (worker, from, to) -> {
+            Object accumulator = array.get(from);
+            for (int i = from + 1; i < to; ++i) {
+                accumulator = function.call(worker, Arrays.asList(accumulator, array.get(i)));
+            }
+            return accumulator;
+        }, (worker, from, mid, to, left, right) -> function.call(worker, Arrays.asList(left, right)));
+        return function.call(interpreter, Arrays.asList(initial, total));
+    }
+
+    // A stable merge sort. compare(a, b) returns a number: negative when a
+    // goes before b, positive when after and zero when either order will do.
+    private static LoxArray sort(Interpreter interpreter, LoxArray array, LoxCallable compare) {
+        Object[] values = new Object[array.size()];
+        for (int i = 0; i < values.length; ++i) {
+            values[i] = array.get(i);
+        }
+
+        Object[] buffer = new Object[values.length];
+        split(interpreter, values.length, (worker, from, to) -> {
+            try {
+                Arrays.sort(values, from, to, comparator(worker, compare));
+            } catch (IllegalArgumentException error) {
+                throw new RuntimeError(null, "parallelSort comparison is inconsistent.");
+            }
+            return null;
+        }, (worker, from, mid, to, left, right) -> {
+            merge(values, buffer, from, mid, to, comparator(worker, compare));
+            return null;
+        });
+        return LoxArray.of(values, values.length);
+    }
+
+    private static void merge(Object[] values, Object[] buffer, int from, int mid, int to, Comparator<Object> order) {
+        if (order.compare(values[mid - 1], values[mid]) <= 0) return;
+
+        int left = from;
+        int right = mid;
+        for (int i = from; i < to; ++i) {
+            if (right == to || (left < mid && order.compare(values[left], values[right]) <= 0)) {
+                buffer[i] = values[left++];
+            } else {
+                buffer[i] = values[right++];
+            }
+        }
+        System.arraycopy(buffer, from, values, from, to - from);
+    }
+
+    private static Comparator<Object> comparator(Interpreter worker, LoxCallable compare) {
+        return (a, b) -> {
+            Object result = compare.call(worker, Arrays.asList(a, b));
+            if (!(result instanceof Double)) {
+                throw new RuntimeError(null, "parallelSort comparison must return a number.");
+            }
+            return Double.compare((Double)result, 0.0);
+        };
+    }
+
+    private static <T> T split(Interpreter interpreter, int size, Chunk<T> chunk, Combine<T> combine) {
+        if (size < THRESHOLD) return chunk.run(interpreter, 0, size);
+
+        int grain = Math.max(MIN_CHUNK, size / (8 * ForkJoinPool.getCommonPoolParallelism()));
+        return ForkJoinPool.commonPool().invoke(new Split<>(interpreter, chunk, combine, 0, size, grain));
+    }
+
+    private static LoxArray array(Object value, String name) {
+        if (!(value instanceof LoxArray)) {
+            throw new RuntimeError(null, name + " expects an array.");
+        }
+        return (LoxArray)value;
+    }
+
+    private static LoxCallable function(Object value, int arity, String name) {
+        if (!(value instanceof LoxCallable) || ((LoxCallable)value).arity() != arity) {
+            throw new RuntimeError(null, name + " expects a function of " + arity + (arity == 1 ? " argument." : " arguments."));
+        }
+        return (LoxCallable)value;
+    }
+
+}
@@ -9,10 +9,13 @@ import static com.craftinginterpreters.lox.TokenType.*;
 class Parser {
     private static class ParseError extends RuntimeException {}
     private final List<Token> tokens;
+    private final ErrorReporter errors;
     private int current = 0;
+    private boolean allowBareExpression = false;
 
-    Parser(List<Token> tokens) {
+    Parser(List<Token> tokens, ErrorReporter errors) {
         this.tokens = tokens;
+        this.errors = errors;
     }
 
     private Expr expression() {
@@ -28,12 +31,11 @@ class Parser {
         return statements;
     }
 
-    Expr parseAsExpression() {
-        try {
-            return expression();
-        } catch (ParseError error) {
-            return null;
-        }
+    // Parses a REPL line in a single pass. The trailing ';' may be omitted
+    // after a final expression statement.
+    List<Stmt> parseRepl() {
+        allowBareExpression = true;
+        return parse();
     }
 
     private Stmt declaration() {
@@ -41,6 +43,7 @@ class Parser {
             if(match(CLASS))    return classDeclaration();
             if (match(FUN))     return function("function", false);
             if (match(VAR))     return varDeclaration();
+            if (match(IMPORT))  return importDeclaration();
 
             return statement();
         } catch (ParseError error) {
@@ -85,11 +88,46 @@ class Parser {
         return new Stmt.Var(name, initializer);
     }
 
+    private Stmt importDeclaration() {
+        Token keyword = previous();
+        Token path = consume(STRING, "Expect module path after 'import'.");
+
+        // the module is bound to the file name without directory and extension
+        String module = (String)path.literal;
+        module = module.substring(module.lastIndexOf('/') + 1);
+        if(module.endsWith(".lox")) {
+            module = module.substring(0, module.length() - 4);
+        }
+
+        if(!isIdentifier(module)) {
+            error(path, "Module file name must be a valid identifier.");
+        }
+
+        consume(SEMICOLON, "Expect ';' after import.");
+        return new Stmt.Import(keyword, path, new Token(IDENTIFIER, module, null, keyword.line));
+    }
+
+    private boolean isIdentifier(String name) {
+        if(name.isEmpty() || Character.isDigit(name.charAt(0))) return false;
+
+        for (char c : name.toCharArray()) {
+            if(!(c >= 'a' && c <= 'z') && !(c >= 'A' && c <= 'Z') && !(c >= '0' && c <= '9') && c != '_') {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
     private Stmt statement() {
         if(match(FOR))          return forStatement();
         if(match(IF))           return ifStatement();
+        if(match(MATCH))        return matchStatement();
         if(match(PRINT))        return printStatement();
         if(match(RETURN))       return returnStatement();
+        if(match(YIELD))        return yieldStatement();
+        if(match(THROW))        return throwStatement();
+        if(match(TRY))          return tryStatement();
         if(match(WHILE))        return whileStatement();
         if(match(LEFT_BRACE))   return new Stmt.Block(block());
 
@@ -99,6 +137,13 @@ class Parser {
     private Stmt forStatement() {
         consume(LEFT_PAREN, "Expect '(' after 'for'.");
 
+        // 'for (x in xs)' or 'for (var x in xs)'; 'in' is only special here
+        int name = check(VAR) ? current + 1 : current;
+        if(isIn(name + 1) && tokens.get(name).type == IDENTIFIER) {
+            current = name + 2;
+            return forInStatement(tokens.get(name));
+        }
+
         Stmt initializer;
         if(match(SEMICOLON)) {
             initializer = null;
@@ -143,6 +188,19 @@ class Parser {
         return body;
     }
 
+    private boolean isIn(int index) {
+        if(index >= tokens.size()) return false;
+        Token token = tokens.get(index);
+        return token.type == IDENTIFIER && token.lexeme.equals("in");
+    }
+
+    private Stmt forInStatement(Token name) {
+        Expr iterable = expression();
+        consume(RIGHT_PAREN, "Expect ')' after for-in clause.");
+        Stmt body = statement();
+        return new Stmt.ForIn(name, iterable, body);
+    }
+
     private Stmt whileStatement() {
         consume(LEFT_PAREN, "Expect '(' after 'while'.");
         Expr condition = expression();
@@ -184,13 +242,80 @@ class Parser {
         return new Stmt.Return(keyword, value);
     }
 
+    private Stmt yieldStatement() {
+        Token keyword = previous();
+        Expr value = null;
+        if(!check(SEMICOLON)) {
+            value = expression();
+        }
+
+        consume(SEMICOLON, "Expect ';' after yield value.");
+        return new Stmt.Yield(keyword, value);
+    }
+
+    private Stmt matchStatement() {
+        Token keyword = previous();
+        consume(LEFT_PAREN, "Expect '(' after 'match'.");
+        Expr subject = expression();
+        consume(RIGHT_PAREN, "Expect ')' after match subject.");
+        consume(LEFT_BRACE, "Expect '{' before match arms.");
+
+        List<Stmt.Case> cases = new ArrayList<>();
+        Stmt otherwise = null;
+        while(!check(RIGHT_BRACE) && !isAtEnd()) {
+            if(otherwise != null) {
+                throw error(peek(), "The else arm must come last.");
+            }
+
+            if(match(ELSE)) {
+                consume(COLON, "Expect ':' after 'else'.");
+                otherwise = statement();
+                continue;
+            }
+
+            Token arm = consume(CASE, "Expect 'case' or 'else' in match.");
+            List<Expr> patterns = new ArrayList<>();
+            do {
+                patterns.add(expression());
+            } while(match(COMMA));
+            consume(COLON, "Expect ':' after case patterns.");
+            cases.add(new Stmt.Case(arm, patterns, statement()));
+        }
+
+        consume(RIGHT_BRACE, "Expect '}' after match arms.");
+        return new Stmt.Match(keyword, subject, cases, otherwise);
+    }
+
+    private Stmt throwStatement() {
+        Token keyword = previous();
+        Expr value = expression();
+        consume(SEMICOLON, "Expect ';' after thrown value.");
+        return new Stmt.Throw(keyword, value);
+    }
+
+    private Stmt tryStatement() {
+        Token keyword = previous();
+        consume(LEFT_BRACE, "Expect '{' after 'try'.");
+        List<Stmt> body = block();
+
+        consume(CATCH, "Expect 'catch' after try block.");
+        consume(LEFT_PAREN, "Expect '(' after 'catch'.");
+        Token name = consume(IDENTIFIER, "Expect error variable name.");
+        consume(RIGHT_PAREN, "Expect ')' after error variable.");
+        consume(LEFT_BRACE, "Expect '{' after catch clause.");
+        return new Stmt.Try(keyword, body, name, block());
+    }
+
     private Stmt expressionStatement() {
         Expr expr = expression();
+        if(allowBareExpression && isAtEnd()) return new Stmt.Expression(expr);
         consume(SEMICOLON, "Expect ';' after expression.");
         return new Stmt.Expression(expr);
     }
 
     private Stmt.Function function(String kind, boolean isStatic) {
+        // 'fun* name()' and '*name()' declare generators
+        boolean isGenerator = match(STAR);
         Token name = consume(IDENTIFIER, "Expect " + kind + " name.");
 
         List<Token> parameters = new ArrayList<>();
@@ -215,7 +340,10 @@ class Parser {
 
         consume(LEFT_BRACE, "Expect '{' before " + kind + " body.");
         List<Stmt> body = block();
-        return new Stmt.Function(name, parameters, body, isStatic, isGetter);
+        if(isGenerator && isGetter) {
+            error(name, "A getter can't be a generator.");
+        }
+        return new Stmt.Function(name, parameters, body, isStatic, isGetter, isGenerator);
     }
 
     private List<Stmt> block() {
@@ -242,6 +370,9 @@ class Parser {
             } else if(expr instanceof Expr.Get) {
                 Expr.Get get = (Expr.Get) expr;
                 return new Expr.Set(get.object, get.name, value);
+            } else if(expr instanceof Expr.Index) {
+                Expr.Index index = (Expr.Index) expr;
+                return new Expr.SetIndex(index.object, index.bracket, index.index, value);
             }
 
             error(equals, "Invalid assignment target.");
@@ -329,6 +460,20 @@ class Parser {
             return new Expr.Unary(operator, right);
         }
 
+        if(match(AWAIT)) {
+            Token keyword = previous();
+            return new Expr.Await(keyword, unary());
+        }
+
+        if(match(SPAWN)) {
+            Token keyword = previous();
+            Expr call = call();
+            if(!(call instanceof Expr.Call)) {
+                throw error(keyword, "Expect a function call after 'spawn'.");
+            }
+            return new Expr.Spawn(keyword, (Expr.Call)call);
+        }
+
         return call();
     }
 
@@ -341,6 +486,11 @@ class Parser {
             } else if(match(DOT)) {
                 Token name = consume(IDENTIFIER, "Expect property name after '.'.");
                 expr = new Expr.Get(expr, name);
+            } else if(match(LEFT_BRACKET)) {
+                Token bracket = previous();
+                Expr index = expression();
+                consume(RIGHT_BRACKET, "Expect ']' after index.");
+                expr = new Expr.Index(expr, bracket, index);
             } else {
                 break;
             }
@@ -396,6 +546,18 @@ class Parser {
             return new Expr.Grouping(expr);
         }
 
+        if(match(LEFT_BRACKET)) {
+            Token bracket = previous();
+            List<Expr> elements = new ArrayList<>();
+            if (!check(RIGHT_BRACKET)) {
+                do {
+                    elements.add(expression());
+                } while (match(COMMA));
+            }
+            consume(RIGHT_BRACKET, "Expect ']' after array elements.");
+            return new Expr.ArrayLiteral(bracket, elements);
+        }
+
         throw error(peek(), "Expect expression.");
     }
 
@@ -417,7 +579,7 @@ class Parser {
     }
 
     private ParseError error(Token token, String message) {
-        Lox.error(token, message);
+        errors.error(token, message);
         return new ParseError();
     }
 
@@ -431,11 +593,16 @@ class Parser {
                 case CLASS:
                 case FUN:
                 case VAR:
+                case IMPORT:
                 case FOR:
                 case IF:
                 case WHILE:
                 case PRINT:
                 case RETURN:
+                case YIELD:
+                case THROW:
+                case TRY:
+                case MATCH:
                     return;
                 default: advance();
             }
@@ -0,0 +1,407 @@
+package com.craftinginterpreters.lox;
+
+import java.util.ArrayList;
+import java.util.List;
+
+// An immutable hash map made by the 'persistentMap' native. put() and
+// remove() return a new map that shares everything off the changed path.
+// Keys compare like LoxMap's: a string that spells a number is that number.
+//
+// A hash array mapped trie: each level takes 5 bits of the hash, and a
+// bitmap tells which of the 32 children exist, so nodes only hold those.
+// Entries sit in the node as key/value pairs; a null key marks a child node
+// in the value slot. Keys whose full hashes collide share a CollisionNode.
+// A Builder puts in place into nodes it owns, for bulk construction.
+class PersistentMap {
+    private static final Object NIL_KEY = new Object();
+    private static final Object NOT_FOUND = new Object();
+
+    private static class Edit {
+        boolean open = true;
+    }
+
+    private abstract static class Node {
+        abstract Object find(int shift, int hash, Object key);
+        // added[0] is set if the map gains an entry rather than replacing one.
+        abstract Node put(Edit edit, int shift, int hash, Object key, Object value, boolean[] added);
+        // Returns null when the node ends up empty.
+        abstract Node remove(Edit edit, int shift, int hash, Object key);
+        abstract void collect(List<Object> keys, List<Object> values);
+    }
+
+    private static class BitmapNode extends Node {
+        static final BitmapNode EMPTY = new BitmapNode(null, 0, new Object[0]);
+
+        final Edit edit;
+        int bitmap;
+        Object[] array;
+
+        BitmapNode(Edit edit, int bitmap, Object[] array) {
+            this.edit = edit;
+            this.bitmap = bitmap;
+            this.array = array;
+        }
+
+        @Override
+        Object find(int shift, int hash, Object key) {
+            int bit = bit(hash, shift);
+            if ((bitmap & bit) == 0) return NOT_FOUND;
+
+            int index = index(bit);
+            Object stored = array[2 * index];
+            Object value = array[2 * index + 1];
+            if (stored == null) return ((Node)value).find(shift + 5, hash, key);
+            return same(stored, key) ? value : NOT_FOUND;
+        }
+
+        @Override
+        Node put(Edit edit, int shift, int hash, Object key, Object value, boolean[] added) {
+            int bit = bit(hash, shift);
+            int index = index(bit);
+
+            if ((bitmap & bit) != 0) {
+                Object stored = array[2 * index];
+                Object current = array[2 * index + 1];
+                if (stored == null) {
+                    Node child = ((Node)current).put(edit, shift + 5, hash, key, value, added);
+                    return child == current ? this : with(edit, 2 * index + 1, child);
+                }
+                if (same(stored, key)) {
+                    return current == value ? this : with(edit, 2 * index + 1, value);
+                }
+
+                added[0] = true;
+                Node child = pair(edit, shift + 5, stored, current, hash, key, value);
+                BitmapNode result = with(edit, 2 * index, null);
+                result.array[2 * index + 1] = child;
+                return result;
+            }
+
+            added[0] = true;
+            int count = Integer.bitCount(bitmap);
+            Object[] grown = new Object[2 * (count + 1)];
+            System.arraycopy(array, 0, grown, 0, 2 * index);
+            grown[2 * index] = key;
+            grown[2 * index + 1] = value;
+            System.arraycopy(array, 2 * index, grown, 2 * (index + 1), 2 * (count - index));
+            return update(edit, bitmap | bit, grown);
+        }
+
+        @Override
+        Node remove(Edit edit, int shift, int hash, Object key) {
+            int bit = bit(hash, shift);
+            if ((bitmap & bit) == 0) return this;
+
+            int index = index(bit);
+            Object stored = array[2 * index];
+            Object current = array[2 * index + 1];
+            if (stored == null) {
+                Node child = ((Node)current).remove(edit, shift + 5, hash, key);
+                if (child == current) return this;
+                if (child != null) return with(edit, 2 * index + 1, child);
+            } else if (!same(stored, key)) {
+                return this;
+            }
+
+            if (bitmap == bit) return null;
+            int count = Integer.bitCount(bitmap);
+            Object[] shrunk = new Object[2 * (count - 1)];
+            System.arraycopy(array, 0, shrunk, 0, 2 * index);
+            System.arraycopy(array, 2 * (index + 1), shrunk, 2 * index, 2 * (count - index - 1));
+            return update(edit, bitmap ^ bit, shrunk);
+        }
+
+        @Override
+        void collect(List<Object> keys, List<Object> values) {
+            for (int i = 0; i < array.length; i += 2) {
+                if (array[i] == null) {
+                    ((Node)array[i + 1]).collect(keys, values);
+                } else {
+                    keys.add(array[i] == NIL_KEY ? null : array[i]);
+                    values.add(array[i + 1]);
+                }
+            }
+        }
+
+        private int index(int bit) {
+            return Integer.bitCount(bitmap & (bit - 1));
+        }
+
+        private BitmapNode with(Edit edit, int slot, Object value) {
+            BitmapNode result = update(edit, bitmap, edit != null && this.edit == edit ? array : array.clone());
+            result.array[slot] = value;
+            return result;
+        }
+
+        private BitmapNode update(Edit edit, int bitmap, Object[] array) {
+            if (edit == null || this.edit != edit) return new BitmapNode(edit, bitmap, array);
+            this.bitmap = bitmap;
+            this.array = array;
+            return this;
+        }
+    }
+
+    private static class CollisionNode extends Node {
+        final Edit edit;
+        final int hash;
+        Object[] array;
+
+        CollisionNode(Edit edit, int hash, Object[] array) {
+            this.edit = edit;
+            this.hash = hash;
+            this.array = array;
+        }
+
+        @Override
+        Object find(int shift, int hash, Object key) {
+            int index = indexOf(key);
+            return index < 0 ? NOT_FOUND : array[index + 1];
+        }
+
+        @Override
+        Node put(Edit edit, int shift, int hash, Object key, Object value, boolean[] added) {
+            if (hash != this.hash) {
+                // a different hash: push this node one level down
+                Node parent = new BitmapNode(edit, bit(this.hash, shift), new Object[] { null, this });
+                return parent.put(edit, shift, hash, key, value, added);
+            }
+
+            int index = indexOf(key);
+            Object[] changed;
+            if (index >= 0) {
+                if (array[index + 1] == value) return this;
+                changed = editable(edit) ? array : array.clone();
+                changed[index + 1] = value;
+            } else {
+                added[0] = true;
+                changed = new Object[array.length + 2];
+                System.arraycopy(array, 0, changed, 0, array.length);
+                changed[array.length] = key;
+                changed[array.length + 1] = value;
+            }
+
+            if (!editable(edit)) return new CollisionNode(edit, hash, changed);
+            array = changed;
+            return this;
+        }
+
+        @Override
+        Node remove(Edit edit, int shift, int hash, Object key) {
+            int index = indexOf(key);
+            if (index < 0) return this;
+            if (array.length == 2) return null;
+
+            Object[] shrunk = new Object[array.length - 2];
+            System.arraycopy(array, 0, shrunk, 0, index);
+            System.arraycopy(array, index + 2, shrunk, index, array.length - index - 2);
+            if (!editable(edit)) return new CollisionNode(edit, hash, shrunk);
+            array = shrunk;
+            return this;
+        }
+
+        @Override
+        void collect(List<Object> keys, List<Object> values) {
+            for (int i = 0; i < array.length; i += 2) {
+                keys.add(array[i] == NIL_KEY ? null : array[i]);
+                values.add(array[i + 1]);
+            }
+        }
+
+        private int indexOf(Object key) {
+            for (int i = 0; i < array.length; i += 2) {
+                if (same(array[i], key)) return i;
+            }
+            return -1;
+        }
+
+        private boolean editable(Edit edit) {
+            return edit != null && this.edit == edit;
+        }
+    }
+
+    static final PersistentMap EMPTY = new PersistentMap(0, BitmapNode.EMPTY);
+
+    private final int size;
+    private final Node root;
+
+    private PersistentMap(int size, Node root) {
+        this.size = size;
+        this.root = root;
+    }
+
+    static PersistentMap of(LoxMap map) {
+        Builder builder = new Builder(EMPTY);
+        LoxArray keys = map.keys();
+        LoxArray values = map.values();
+        for (int i = 0; i < keys.size(); ++i) {
+            builder.put(keys.get(i), values.get(i));
+        }
+        return builder.build();
+    }
+
+    int size() {
+        return size;
+    }
+
+    Object get(Object key) {
+        Object canonical = canonical(key);
+        Object value = root.find(0, hash(canonical), canonical);
+        return value == NOT_FOUND ? null : value;
+    }
+
+    boolean has(Object key) {
+        Object canonical = canonical(key);
+        return root.find(0, hash(canonical), canonical) != NOT_FOUND;
+    }
+
+    PersistentMap put(Object key, Object value) {
+        Object canonical = canonical(key);
+        boolean[] added = new boolean[1];
+        Node changed = root.put(null, 0, hash(canonical), canonical, value, added);
+        return changed == root ? this : new PersistentMap(added[0] ? size + 1 : size, changed);
+    }
+
+    PersistentMap remove(Object key) {
+        Object canonical = canonical(key);
+        Node changed = root.remove(null, 0, hash(canonical), canonical);
+        if (changed == root) return this;
+        return new PersistentMap(size - 1, changed == null ? BitmapNode.EMPTY : changed);
+    }
+
+    LoxArray keys() {
+        List<Object> keys = new ArrayList<>(size);
+        root.collect(keys, new ArrayList<>(size));
+        return LoxArray.of(keys.toArray(), size);
+    }
+
+    LoxArray values() {
+        List<Object> values = new ArrayList<>(size);
+        root.collect(new ArrayList<>(size), values);
+        return LoxArray.of(values.toArray(), size);
+    }
+
+    Object get(Token name) {
+        switch (name.lexeme) {
+            case "size":
+                return (double)size;
+            case "get":
+                return new NativeFunction(name.lexeme, 1) {
+                    @Override
+                    public Object call(Interpreter interpreter, List<Object> arguments) {
+                        return get(arguments.get(0));
+                    }
+                };
+            case "has":
+                return new NativeFunction(name.lexeme, 1) {
+                    @Override
+                    public Object call(Interpreter interpreter, List<Object> arguments) {
+                        return has(arguments.get(0));
+                    }
+                };
+            case "put":
+                return new NativeFunction(name.lexeme, 2) {
+                    @Override
+                    public Object call(Interpreter interpreter, List<Object> arguments) {
+                        return put(arguments.get(0), arguments.get(1));
+                    }
+                };
+            case "remove":
+                return new NativeFunction(name.lexeme, 1) {
+                    @Override
+                    public Object call(Interpreter interpreter, List<Object> arguments) {
+                        return remove(arguments.get(0));
+                    }
+                };
+            case "keys":
+                return new NativeFunction(name.lexeme, 0) {
+                    @Override
+                    public Object call(Interpreter interpreter, List<Object> arguments) {
+                        return keys();
+                    }
+                };
+            case "values":
+                return new NativeFunction(name.lexeme, 0) {
+                    @Override
+                    public Object call(Interpreter interpreter, List<Object> arguments) {
+                        return values();
+                    }
+                };
+            default:
+                throw new RuntimeError(name, "Undefined property '" + name.lexeme + "'.");
+        }
+    }
+
+    // Puts in place; build() closes it and returns the finished map.
+    static class Builder {
+        private final Edit edit = new Edit();
+        private final boolean[] added = new boolean[1];
+        private Node root;
+        private int size;
+
+        Builder(PersistentMap start) {
+            this.root = start.root;
+            this.size = start.size;
+        }
+
+        void put(Object key, Object value) {
+            if (!edit.open) throw new IllegalStateException("Builder already built.");
+            Object canonical = canonical(key);
+            added[0] = false;
+            root = root.put(edit, 0, hash(canonical), canonical, value, added);
+            if (added[0]) size++;
+        }
+
+        PersistentMap build() {
+            edit.open = false;
+            return new PersistentMap(size, root);
+        }
+    }
+
+    private static Object canonical(Object key) {
+        long number = LoxMap.numberKey(key);
+        if (number != LoxMap.NO_NUMBER) return Double.longBitsToDouble(number);
+        if (key instanceof LoxRope) return key.toString();
+        return key == null ? NIL_KEY : key;
+    }
+
+    private static boolean same(Object stored, Object key) {
+        if (stored == key) return true;
+        if (stored instanceof Double || stored instanceof String || stored instanceof Boolean) return stored.equals(key);
+        return false;
+    }
+
+    private static int hash(Object key) {
+        boolean byValue = key instanceof Double || key instanceof String || key instanceof Boolean;
+        int hash = byValue ? key.hashCode() : System.identityHashCode(key);
+        return hash ^ (hash >>> 16);
+    }
+
+    // A node holding two entries that collide at the level above shift.
+    private static Node pair(Edit edit, int shift, Object key1, Object value1, int hash2, Object key2, Object value2) {
+        int hash1 = hash(key1);
+        if (hash1 == hash2) return new CollisionNode(edit, hash1, new Object[] { key1, value1, key2, value2 });
+
+        boolean[] added = new boolean[1];
+        return BitmapNode.EMPTY
+            .put(edit, shift, hash1, key1, value1, added)
+            .put(edit, shift, hash2, key2, value2, added);
+    }
+
+    private static int bit(int hash, int shift) {
+        return 1 << ((hash >>> shift) & 31);
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder("{");
+        LoxArray keys = keys();
+        LoxArray values = values();
+        for (int i = 0; i < keys.size(); ++i) {
+            if (i > 0) builder.append(", ");
+            LoxArray.appendElement(builder, keys.get(i));
+            builder.append(": ");
+            LoxArray.appendElement(builder, values.get(i));
+        }
+        return builder.append("}").toString();
+    }
+}
@@ -0,0 +1,254 @@
+package com.craftinginterpreters.lox;
+
+import java.util.List;
+
+// An immutable vector made by the 'persistentVector' native. set() and
+// append() return a new vector that shares all but one path of the old one,
+// so versions are cheap to keep and safe to hand to other tasks.
+//
+// A 32-way trie of Object[] leaves plus a tail leaf that is not in the trie
+// yet, as in Clojure's PersistentVector. A Builder appends in place to nodes
+// it owns and is used for bulk construction.
+class PersistentVector {
+    private static final int BITS = 5;
+    private static final int WIDTH = 1 << BITS;
+    private static final int MASK = WIDTH - 1;
+
+    // Nodes made by a Builder carry its Edit and may be changed while it is open.
+    private static class Edit {
+        boolean open = true;
+    }
+
+    private static class Node {
+        final Edit edit;
+        final Object[] array;
+
+        Node(Edit edit, Object[] array) {
+            this.edit = edit;
+            this.array = array;
+        }
+    }
+
+    private static final Node EMPTY_NODE = new Node(null, new Object[WIDTH]);
+    static final PersistentVector EMPTY = new PersistentVector(0, BITS, EMPTY_NODE, new Object[0]);
+
+    private final int count;
+    private final int shift;
+    private final Node root;
+    private final Object[] tail;
+
+    private PersistentVector(int count, int shift, Node root, Object[] tail) {
+        this.count = count;
+        this.shift = shift;
+        this.root = root;
+        this.tail = tail;
+    }
+
+    static PersistentVector of(LoxArray array) {
+        Builder builder = new Builder(EMPTY);
+        for (int i = 0; i < array.size(); ++i) {
+            builder.append(array.get(i));
+        }
+        return builder.build();
+    }
+
+    int size() {
+        return count;
+    }
+
+    Object get(int index) {
+        return leafFor(index)[index & MASK];
+    }
+
+    PersistentVector set(int index, Object value) {
+        if (index >= tailOffset()) {
+            Object[] newTail = tail.clone();
+            newTail[index & MASK] = value;
+            return new PersistentVector(count, shift, root, newTail);
+        }
+        return new PersistentVector(count, shift, setIn(shift, root, index, value), tail);
+    }
+
+    PersistentVector append(Object value) {
+        if (count - tailOffset() < WIDTH) {
+            Object[] newTail = new Object[tail.length + 1];
+            System.arraycopy(tail, 0, newTail, 0, tail.length);
+            newTail[tail.length] = value;
+            return new PersistentVector(count + 1, shift, root, newTail);
+        }
+
+        Node tailNode = new Node(null, tail);
+        int newShift = shift;
+        Node newRoot;
+        if ((count >>> BITS) > (1 << shift)) {
+            // the trie is full; grow a level
+            newRoot = new Node(null, new Object[WIDTH]);
+            newRoot.array[0] = root;
+            newRoot.array[1] = newPath(null, shift, tailNode);
+            newShift += BITS;
+        } else {
+            newRoot = pushTail(null, count, shift, root, tailNode);
+        }
+        return new PersistentVector(count + 1, newShift, newRoot, new Object[] { value });
+    }
+
+    LoxArray toArray() {
+        Object[] elements = new Object[count];
+        for (int i = 0; i < count; i += WIDTH) {
+            Object[] leaf = leafFor(i);
+            System.arraycopy(leaf, 0, elements, i, Math.min(WIDTH, count - i));
+        }
+        return LoxArray.of(elements, count);
+    }
+
+    Object get(Token name) {
+        switch (name.lexeme) {
+            case "length":
+                return (double)count;
+            case "get":
+                return new NativeFunction(name.lexeme, 1) {
+                    @Override
+                    public Object call(Interpreter interpreter, List<Object> arguments) {
+                        return get(LoxArray.index(null, arguments.get(0), count));
+                    }
+                };
+            case "set":
+                return new NativeFunction(name.lexeme, 2) {
+                    @Override
+                    public Object call(Interpreter interpreter, List<Object> arguments) {
+                        return set(LoxArray.index(null, arguments.get(0), count), arguments.get(1));
+                    }
+                };
+            case "append":
+                return new NativeFunction(name.lexeme, 1) {
+                    @Override
+                    public Object call(Interpreter interpreter, List<Object> arguments) {
+                        return append(arguments.get(0));
+                    }
+                };
+            case "toArray":
+                return new NativeFunction(name.lexeme, 0) {
+                    @Override
+                    public Object call(Interpreter interpreter, List<Object> arguments) {
+                        return toArray();
+                    }
+                };
+            default:
+                throw new RuntimeError(name, "Undefined property '" + name.lexeme + "'.");
+        }
+    }
+
+    private int tailOffset() {
+        return count < WIDTH ? 0 : ((count - 1) >>> BITS) << BITS;
+    }
+
+    private Object[] leafFor(int index) {
+        if (index >= tailOffset()) return tail;
+
+        Node node = root;
+        for (int level = shift; level > 0; level -= BITS) {
+            node = (Node)node.array[(index >>> level) & MASK];
+        }
+        return node.array;
+    }
+
+    private static Node setIn(int level, Node node, int index, Object value) {
+        Node copy = new Node(null, node.array.clone());
+        if (level == 0) {
+            copy.array[index & MASK] = value;
+        } else {
+            int child = (index >>> level) & MASK;
+            copy.array[child] = setIn(level - BITS, (Node)node.array[child], index, value);
+        }
+        return copy;
+    }
+
+    // Hangs a full tail leaf under the trie of a vector with count elements.
+    private static Node pushTail(Edit edit, int count, int level, Node parent, Node tailNode) {
+        Node result = editable(edit, parent);
+        int child = ((count - 1) >>> level) & MASK;
+        Node insert;
+        if (level == BITS) {
+            insert = tailNode;
+        } else {
+            Node existing = (Node)parent.array[child];
+            insert = existing != null
+                ? pushTail(edit, count, level - BITS, existing, tailNode)
+                : newPath(edit, level - BITS, tailNode);
+        }
+        result.array[child] = insert;
+        return result;
+    }
+
+    private static Node newPath(Edit edit, int level, Node node) {
+        if (level == 0) return node;
+        Node path = new Node(edit, new Object[WIDTH]);
+        path.array[0] = newPath(edit, level - BITS, node);
+        return path;
+    }
+
+    // Returns node itself if the open builder owns it, otherwise a copy it owns.
+    private static Node editable(Edit edit, Node node) {
+        if (edit != null && node.edit == edit) return node;
+        return new Node(edit, node.array.clone());
+    }
+
+    // Appends in place; build() closes it and returns the finished vector.
+    static class Builder {
+        private final Edit edit = new Edit();
+        private int count;
+        private int shift;
+        private Node root;
+        private Object[] tail;
+
+        Builder(PersistentVector start) {
+            this.count = start.count;
+            this.shift = start.shift;
+            this.root = editable(edit, start.root);
+            this.tail = new Object[WIDTH];
+            System.arraycopy(start.tail, 0, tail, 0, start.tail.length);
+        }
+
+        void append(Object value) {
+            if (!edit.open) throw new IllegalStateException("Builder already built.");
+            int tailOffset = count < WIDTH ? 0 : ((count - 1) >>> BITS) << BITS;
+            if (count - tailOffset < WIDTH) {
+                tail[count & MASK] = value;
+                count++;
+                return;
+            }
+
+            Node tailNode = new Node(edit, tail);
+            tail = new Object[WIDTH];
+            tail[0] = value;
+            if ((count >>> BITS) > (1 << shift)) {
+                Node newRoot = new Node(edit, new Object[WIDTH]);
+                newRoot.array[0] = root;
+                newRoot.array[1] = newPath(edit, shift, tailNode);
+                root = newRoot;
+                shift += BITS;
+            } else {
+                root = pushTail(edit, count, shift, root, tailNode);
+            }
+            count++;
+        }
+
+        PersistentVector build() {
+            edit.open = false;
+            int tailLength = count - (count < WIDTH ? 0 : ((count - 1) >>> BITS) << BITS);
+            Object[] trimmed = new Object[tailLength];
+            System.arraycopy(tail, 0, trimmed, 0, tailLength);
+            return new PersistentVector(count, shift, root, trimmed);
+        }
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder("[");
+        for (int i = 0; i < count; ++i) {
+            if (i > 0) builder.append(", ");
+            LoxArray.appendElement(builder, get(i));
+        }
+        return builder.append("]").toString();
+    }
+}
@@ -0,0 +1,25 @@
+package com.craftinginterpreters.lox;
+
+import java.nio.file.Path;
+import java.util.List;
+
+// A script that made it through the scanner, parser and resolver. The
+// resolver's scope depths are stored on the tree and nothing writes to it
+// afterwards, so one Program can be run by any number of engines at once;
+// all execution state lives in the engine. The final field publishes the
+// whole tree safely to other threads.
+public class Program {
+    final List<Stmt> statements;
+    // the file the script came from, which imports are resolved against;
+    // null for source that did not come from a file
+    final Path path;
+
+    Program(List<Stmt> statements) {
+        this(statements, null);
+    }
+
+    Program(List<Stmt> statements, Path path) {
+        this.statements = List.copyOf(statements);
+        this.path = path;
+    }
+}
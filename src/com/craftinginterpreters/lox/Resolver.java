@@ -6,14 +6,15 @@ import java.util.Map;
 import java.util.Stack;
 
 class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
-    private final Interpreter interpreter;
+    private final ErrorReporter errors;
     private final Stack<Map<String, Boolean>> scopes = new Stack<>();
     private FunctionType currentFunction = FunctionType.NONE;
     private LoopType currentLoop = LoopType.NONE;
     private ClassType currentClass = ClassType.NONE;
+    private boolean inGenerator = false;
 
-    Resolver(Interpreter interpreter) {
-        this.interpreter = interpreter;
+    Resolver(ErrorReporter errors) {
+        this.errors = errors;
     }
 
     private enum FunctionType {
@@ -51,7 +52,7 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
         define(stmt.name);
 
         if (stmt.superclass != null && stmt.name.lexeme.equals(stmt.superclass.name.lexeme)) {
-            Lox.error(stmt.superclass.name, "A class can't inherit from itself.");
+            errors.error(stmt.superclass.name, "A class can't inherit from itself.");
         }
 
         boolean hasSuperclass = stmt.superclass != null;
@@ -99,17 +100,17 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
     @Override
     public Void visitVariableExpr(Expr.Variable expr) {
         if(!scopes.empty() && scopes.peek().get(expr.name.lexeme) == Boolean.FALSE) {
-            Lox.error(expr.name, "Can't read local variable in its own initializer.");
+            errors.error(expr.name, "Can't read local variable in its own initializer.");
         }
 
-        resolveLocal(expr, expr.name);
+        expr.depth = resolveLocal(expr.name);
         return null;
     }
 
     @Override
     public Void visitAssignExpr(Expr.Assign expr) {
         resolve(expr.value);
-        resolveLocal(expr, expr.name);
+        expr.depth = resolveLocal(expr.name);
         return null;
     }
 
@@ -142,15 +143,29 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
         return null;
     }
 
+    @Override
+    public Void visitImportStmt(Stmt.Import stmt) {
+        if (!scopes.empty()) {
+            errors.error(stmt.keyword, "Imports must be at the top level.");
+        }
+
+        declare(stmt.name);
+        define(stmt.name);
+        return null;
+    }
+
     @Override
     public Void visitReturnStmt(Stmt.Return stmt) {
         if (currentFunction == FunctionType.NONE) {
-            Lox.error(stmt.keyword, "Can't return from top-level code.");
+            errors.error(stmt.keyword, "Can't return from top-level code.");
         }
 
         if(stmt.value != null) {
             if(currentFunction == FunctionType.INITIALIZER) {
-                Lox.error(stmt.keyword, "Can't return a value from an initializer.");
+                errors.error(stmt.keyword, "Can't return a value from an initializer.");
+            }
+            if(inGenerator) {
+                errors.error(stmt.keyword, "Can't return a value from a generator.");
             }
 
             resolve(stmt.value);
@@ -159,6 +174,72 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
         return null;
     }
 
+    @Override
+    public Void visitForInStmt(Stmt.ForIn stmt) {
+        resolve(stmt.iterable);
+
+        LoopType enclosingLoop = currentLoop;
+        currentLoop = LoopType.LOOP;
+        beginScope();
+        declare(stmt.name);
+        define(stmt.name);
+        resolve(stmt.body);
+        endScope();
+        currentLoop = enclosingLoop;
+        return null;
+    }
+
+    @Override
+    public Void visitMatchStmt(Stmt.Match stmt) {
+        resolve(stmt.subject);
+        for (Stmt.Case arm : stmt.cases) {
+            resolve(arm);
+        }
+        if (stmt.otherwise != null) resolve(stmt.otherwise);
+
+        stmt.table = MatchTable.compile(stmt);
+        return null;
+    }
+
+    @Override
+    public Void visitCaseStmt(Stmt.Case stmt) {
+        for (Expr pattern : stmt.patterns) {
+            resolve(pattern);
+        }
+        resolve(stmt.body);
+        return null;
+    }
+
+    @Override
+    public Void visitThrowStmt(Stmt.Throw stmt) {
+        resolve(stmt.value);
+        return null;
+    }
+
+    @Override
+    public Void visitTryStmt(Stmt.Try stmt) {
+        beginScope();
+        resolve(stmt.body);
+        endScope();
+
+        beginScope();
+        declare(stmt.name);
+        define(stmt.name);
+        resolve(stmt.handler);
+        endScope();
+        return null;
+    }
+
+    @Override
+    public Void visitYieldStmt(Stmt.Yield stmt) {
+        if (!inGenerator) {
+            errors.error(stmt.keyword, "Can't yield outside a generator.");
+        }
+
+        if (stmt.value != null) resolve(stmt.value);
+        return null;
+    }
+
     @Override
     public Void visitWhileStmt(Stmt.While stmt) {
         LoopType enclosingLoop = currentLoop;
@@ -205,23 +286,23 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
     @Override
     public Void visitSuperExpr(Expr.Super expr) {
         if(currentClass == ClassType.NONE) {
-            Lox.error(expr.keyword, "Can't use 'super' outside of a class.");
+            errors.error(expr.keyword, "Can't use 'super' outside of a class.");
         } else if(currentClass != ClassType.SUBCLASS) {
-            Lox.error(expr.keyword, "Can't use 'super' in a class with no superclass.");
+            errors.error(expr.keyword, "Can't use 'super' in a class with no superclass.");
         }
 
-        resolveLocal(expr, expr.keyword);
+        expr.depth = resolveLocal(expr.keyword);
         return null;
     }
 
     @Override
     public Void visitThisExpr(Expr.This expr) {
         if(currentClass == ClassType.NONE) {
-            Lox.error(expr.keyword, "Can't use 'this' outside of a class.");
+            errors.error(expr.keyword, "Can't use 'this' outside of a class.");
             return null;
         }
 
-        resolveLocal(expr, expr.keyword);
+        expr.depth = resolveLocal(expr.keyword);
         return null;
     }
 
@@ -239,11 +320,46 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
     @Override
     public Void visitBreakExpr(Expr.Break expr) {
         if (currentLoop == LoopType.NONE) {
-            Lox.error(expr.token, "Can't break from outside the loop code.");
+            errors.error(expr.token, "Can't break from outside the loop code.");
         }
         return null;
     }
 
+    @Override
+    public Void visitSpawnExpr(Expr.Spawn expr) {
+        resolve(expr.call);
+        return null;
+    }
+
+    @Override
+    public Void visitAwaitExpr(Expr.Await expr) {
+        resolve(expr.value);
+        return null;
+    }
+
+    @Override
+    public Void visitArrayLiteralExpr(Expr.ArrayLiteral expr) {
+        for (Expr element : expr.elements) {
+            resolve(element);
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitIndexExpr(Expr.Index expr) {
+        resolve(expr.object);
+        resolve(expr.index);
+        return null;
+    }
+
+    @Override
+    public Void visitSetIndexExpr(Expr.SetIndex expr) {
+        resolve(expr.value);
+        resolve(expr.object);
+        resolve(expr.index);
+        return null;
+    }
+
     @Override
     public Void visitLogicalExpr(Expr.Logical expr) {
         resolve(expr.left);
@@ -259,7 +375,13 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
 
     private void resolveFunction(Stmt.Function function, FunctionType type) {
         FunctionType enclosingFunction = currentFunction;
+        boolean enclosingGenerator = inGenerator;
         currentFunction = type;
+        inGenerator = function.isGenerator;
+
+        if (function.isGenerator && type == FunctionType.INITIALIZER) {
+            errors.error(function.name, "An initializer can't be a generator.");
+        }
 
         beginScope();
 
@@ -270,16 +392,19 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
 
         resolve(function.body);
         endScope();
+        if (function.isGenerator) function.yielding = LoxGenerator.findYielding(function);
         currentFunction = enclosingFunction;
+        inGenerator = enclosingGenerator;
     }
 
-    private void resolveLocal(Expr expr, Token name) {
+    // Returns how many scopes out the name is declared, or -1 for a global.
+    private int resolveLocal(Token name) {
         for (int i = scopes.size() - 1; i >= 0; --i) {
             if (scopes.get(i).containsKey(name.lexeme)) {
-                interpreter.resolve(expr, scopes.size() - i - 1);
-                return;
+                return scopes.size() - i - 1;
             }
         }
+        return -1;
     }
 
     private void declare(Token name) {
@@ -288,7 +413,7 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
         Map <String, Boolean> scope = scopes.peek();
 
         if (scope.containsKey(name.lexeme)) {
-            Lox.error(name, "Already a variable with this name in this scope.");
+            errors.error(name, "Already a variable with this name in this scope.");
         }
 
         scope.put(name.lexeme, false);
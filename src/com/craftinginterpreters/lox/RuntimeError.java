@@ -1,10 +1,66 @@
 package com.craftinginterpreters.lox;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+// Both the interpreter's own errors and what a Lox 'throw' throws. No Java
+// stack trace is filled in, so throwing one is about as cheap as a 'return'.
+//
+// The Lox backtrace is recorded as the error leaves each function, and only
+// when no 'try' is running: an error that will be caught never pays for it.
 class RuntimeError extends RuntimeException {
     final Token token;
+    // what 'catch' binds: the thrown value, or the message of an internal error
+    final Object value;
+    // null until read for a thrown value: printing a big array or map costs
+    // as much as its size, and a caught throw never needs it
+    private String message;
+    // the functions the error has left so far, innermost first
+    private List<String> trace = null;
+    // the line the error is at in the function it is in now
+    private int line;
 
     RuntimeError(Token token, String message) {
-        super(message);
+        this(token, message, message);
+    }
+
+    RuntimeError(Token token, String message, Object value) {
+        super(null, null, false, false);
         this.token = token;
+        this.message = message;
+        this.value = value;
+        this.line = token == null ? 0 : token.line;
+    }
+
+    // What a Lox 'throw' of value raises; the message is the printed value.
+    static RuntimeError thrown(Token token, Object value) {
+        return new RuntimeError(token, null, value);
+    }
+
+    @Override
+    public String getMessage() {
+        String text = message;
+        if (text == null) message = text = Interpreter.stringify(value);
+        return text;
+    }
+
+    // Records that the error has left the function it was in.
+    synchronized void leaving(String function) {
+        if (trace == null) trace = new ArrayList<>();
+        trace.add("[line " + line + "] in " + function + "()");
+    }
+
+    // Records the line of the call the error came out of.
+    synchronized void calledFrom(Token site) {
+        line = site.line;
+    }
+
+    synchronized List<String> trace() {
+        return trace == null ? Collections.emptyList() : new ArrayList<>(trace);
+    }
+
+    synchronized int line() {
+        return line;
     }
 }
@@ -9,36 +9,52 @@ import static com.craftinginterpreters.lox.TokenType.*;
 
 class Scanner {
     private final String source;
+    private final ErrorReporter errors;
     private final List<Token> tokens = new ArrayList<>();
     private int start = 0;
     private int current = 0;
-    private int line = 1;
+    private int line;
 
     private static final Map<String, TokenType> keywords;
 
     static {
         keywords = new HashMap<>();
         keywords.put("and",    AND);
+        keywords.put("await",  AWAIT);
         keywords.put("break",  BREAK);
+        keywords.put("case",   CASE);
+        keywords.put("catch",  CATCH);
         keywords.put("class",  CLASS);
         keywords.put("else",   ELSE);
         keywords.put("false",  FALSE);
         keywords.put("for",    FOR);
         keywords.put("fun",    FUN);
         keywords.put("if",     IF);
+        keywords.put("import", IMPORT);
+        keywords.put("match",  MATCH);
         keywords.put("nil",    NIL);
         keywords.put("or",     OR);
         keywords.put("print",  PRINT);
         keywords.put("return", RETURN);
+        keywords.put("spawn",  SPAWN);
         keywords.put("super",  SUPER);
         keywords.put("this",   THIS);
+        keywords.put("throw",  THROW);
         keywords.put("true",   TRUE);
+        keywords.put("try",    TRY);
         keywords.put("var",    VAR);
         keywords.put("while",  WHILE);
+        keywords.put("yield",  YIELD);
     }
 
-    Scanner(String source) {
+    Scanner(String source, ErrorReporter errors) {
+        this(source, 1, errors);
+    }
+
+    Scanner(String source, int line, ErrorReporter errors) {
         this.source = source;
+        this.line = line;
+        this.errors = errors;
     }
 
     List<Token> scanTokens() {
@@ -58,6 +74,9 @@ class Scanner {
             case ')': addToken(RIGHT_PAREN); break;
             case '{': addToken(LEFT_BRACE); break;
             case '}': addToken(RIGHT_BRACE); break;
+            case '[': addToken(LEFT_BRACKET); break;
+            case ']': addToken(RIGHT_BRACKET); break;
+            case ':': addToken(COLON); break;
             case ',': addToken(COMMA); break;
             case '.': addToken(DOT); break;
             case '-': addToken(MINUS); break;
@@ -100,7 +119,7 @@ class Scanner {
                 } else if(isAlpha(c)) {
                     identifier();
                 } else {
-                    Lox.error(line, "Unexprected charachter.");
+                    errors.error(line, "Unexprected charachter.");
                 }
                 break;
         }
@@ -124,7 +143,7 @@ class Scanner {
             while(isDigit(peek())) advance();
         }
 
-        addToken(NUMBER, Double.parseDouble(source.substring(start, current)));
+        addToken(NUMBER, Numbers.parse(source, start, current));
     }
 
     private char peekNext() {
@@ -151,7 +170,7 @@ class Scanner {
         }
 
         if(isAtEnd()) {
-            Lox.error(line, "Unterminated string.");
+            errors.error(line, "Unterminated string.");
             return;
         }
         
@@ -192,7 +211,7 @@ class Scanner {
         
         // If we reach the end of file with unclosed comments, report error
         if (nesting > 0) {
-            Lox.error(line, "Unterminated block comment.");
+            errors.error(line, "Unterminated block comment.");
         }
     }
 
@@ -0,0 +1,99 @@
+package com.craftinginterpreters.lox;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.List;
+
+// On-disk cache of resolved scripts. Entries are keyed by a SHA-256 of the
+// compiled format version and the source text, and are memory-mapped on load.
+class ScriptCache {
+    private final Path directory;
+    private int hits = 0;
+    private int misses = 0;
+    private long loadNanos = 0;
+    private long compileNanos = 0;
+
+    ScriptCache(Path directory) {
+        this.directory = directory;
+    }
+
+    // The cache is opt-in: -Dlox.cache.dir=<dir> or the LOX_CACHE_DIR environment variable.
+    static ScriptCache fromSystem() {
+        String dir = System.getProperty("lox.cache.dir");
+        if (dir == null) dir = System.getenv("LOX_CACHE_DIR");
+        if (dir == null || dir.isEmpty()) return null;
+        return new ScriptCache(Paths.get(dir));
+    }
+
+    List<Stmt> load(String source) {
+        long start = System.nanoTime();
+        Path file = directory.resolve(key(source) + ".loxc");
+
+        List<Stmt> statements = null;
+        if (Files.isRegularFile(file)) {
+            try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+                ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+                statements = new AstReader(buffer).read();
+            } catch (IOException | AstReader.FormatError error) {
+                // A stale or corrupt entry is treated as a miss and overwritten.
+                statements = null;
+            }
+        }
+
+        loadNanos += System.nanoTime() - start;
+        if (statements != null) {
+            hits++;
+        } else {
+            misses++;
+        }
+        return statements;
+    }
+
+    void store(String source, List<Stmt> statements) {
+        byte[] bytes = new AstWriter().write(statements);
+        try {
+            Files.createDirectories(directory);
+            Path temp = Files.createTempFile(directory, "lox", ".tmp");
+            Files.write(temp, bytes);
+            Files.move(temp, directory.resolve(key(source) + ".loxc"),
+                StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException error) {
+            // The cache is best-effort; the script still runs from the fresh AST.
+        }
+    }
+
+    void recordCompile(long nanos) {
+        compileNanos += nanos;
+    }
+
+    String stats() {
+        return String.format("[cache] hits: %d, misses: %d, load: %.3f ms, front end: %.3f ms",
+            hits, misses, loadNanos / 1e6, compileNanos / 1e6);
+    }
+
+    private static String key(String source) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            digest.update(Integer.toString(AstWriter.FORMAT_VERSION).getBytes(StandardCharsets.UTF_8));
+            digest.update((byte)0);
+            digest.update(source.getBytes(StandardCharsets.UTF_8));
+
+            StringBuilder hex = new StringBuilder();
+            for (byte b : digest.digest()) {
+                hex.append(String.format("%02x", b));
+            }
+            return hex.toString();
+        } catch (NoSuchAlgorithmException error) {
+            throw new IllegalStateException(error);
+        }
+    }
+}
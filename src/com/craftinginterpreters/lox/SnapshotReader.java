@@ -0,0 +1,170 @@
+package com.craftinginterpreters.lox;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static com.craftinginterpreters.lox.SnapshotWriter.*;
+
+// Restores an image written by SnapshotWriter into an interpreter: objects are
+// recreated in their recorded order, then every environment's variables,
+// every instance's fields and the contents of arrays and maps are filled in.
+// The snapshot's globals are defined in the interpreter's own global scope.
+class SnapshotReader {
+    static class FormatError extends RuntimeException {
+        FormatError(String message) {
+            super(message);
+        }
+    }
+
+    private final ByteBuffer buffer;
+    private final Interpreter interpreter;
+    private List<Stmt> declarations;
+    private Object[] objects;
+
+    SnapshotReader(ByteBuffer buffer, Interpreter interpreter) {
+        this.buffer = buffer;
+        this.interpreter = interpreter;
+    }
+
+    void read() {
+        try {
+            if (buffer.getInt() != MAGIC) throw new FormatError("Not a Lox snapshot.");
+            if (buffer.getInt() != FORMAT_VERSION) throw new FormatError("Snapshot format mismatch.");
+
+            byte[] fingerprint = new byte[32];
+            buffer.get(fingerprint);
+            if (!Arrays.equals(fingerprint, SnapshotWriter.fingerprint())) {
+                throw new FormatError("Snapshot was written by a different build of the interpreter.");
+            }
+
+            int length = buffer.getInt();
+            declarations = new AstReader(buffer.slice(buffer.position(), length)).read();
+            buffer.position(buffer.position() + length);
+
+            objects = new Object[buffer.getInt()];
+            for (int i = 0; i < objects.length; ++i) {
+                objects[i] = create();
+            }
+            for (Object object : objects) {
+                if (object instanceof Environment) {
+                    fill(((Environment)object).values);
+                } else if (object instanceof LoxInstance) {
+                    fill(((LoxInstance)object).fields);
+                } else if (object instanceof LoxArray) {
+                    Object[] elements = new Object[buffer.getInt()];
+                    for (int i = 0; i < elements.length; ++i) {
+                        elements[i] = readValue();
+                    }
+                    ((LoxArray)object).fill(elements);
+                } else if (object instanceof LoxMap) {
+                    int count = buffer.getInt();
+                    for (int i = 0; i < count; ++i) {
+                        Object key = readValue();
+                        ((LoxMap)object).put(key, readValue());
+                    }
+                }
+            }
+
+            if (buffer.hasRemaining()) throw new FormatError("Trailing data in snapshot.");
+        } catch (RuntimeException error) {
+            if (error instanceof FormatError) throw error;
+            if (error instanceof AstReader.FormatError) throw new FormatError(error.getMessage());
+            throw new FormatError("Corrupt snapshot.");
+        }
+    }
+
+    private Object create() {
+        byte kind = buffer.get();
+        switch (kind) {
+            case GLOBALS:
+                return interpreter.globals;
+            case ENVIRONMENT: {
+                Environment enclosing = environment(buffer.getInt());
+                if (enclosing == null) return new Environment();
+                // only module scopes hang directly off the natives
+                if (enclosing == interpreter.natives) return Environment.shared(enclosing);
+                return new Environment(enclosing);
+            }
+            case FUNCTION: {
+                Stmt.Function declaration = (Stmt.Function)declarations.get(buffer.getInt());
+                Environment closure = environment(buffer.getInt());
+                Environment module = environment(buffer.getInt());
+                return new LoxFunction(declaration, closure, module, buffer.get() != 0);
+            }
+            case CLASS: {
+                String name = readString();
+                int superclass = buffer.getInt();
+                Map<String, LoxFunction> methods = readMethods();
+                Map<String, LoxFunction> staticMethods = readMethods();
+                return new LoxClass(name, superclass < 0 ? null : (LoxClass)objects[superclass], methods, staticMethods);
+            }
+            case INSTANCE:
+                return new LoxInstance((LoxClass)objects[buffer.getInt()]);
+            case ARRAY:
+                return LoxArray.nils(0);
+            case MAP:
+                return new LoxMap();
+            case MODULE: {
+                String name = readString();
+                return new LoxModule(name, environment(buffer.getInt()));
+            }
+            default:
+                throw new FormatError("Unknown object kind " + kind + ".");
+        }
+    }
+
+    private Map<String, LoxFunction> readMethods() {
+        int count = buffer.getInt();
+        Map<String, LoxFunction> methods = new HashMap<>();
+        for (int i = 0; i < count; ++i) {
+            String name = readString();
+            methods.put(name, (LoxFunction)objects[buffer.getInt()]);
+        }
+        return methods;
+    }
+
+    private void fill(Map<String, Object> variables) {
+        int count = buffer.getInt();
+        for (int i = 0; i < count; ++i) {
+            String name = readString();
+            Object value = readValue();
+            variables.put(name, value == null ? Environment.NIL : value);
+        }
+    }
+
+    private Object readValue() {
+        byte tag = buffer.get();
+        switch (tag) {
+            case NIL_VALUE: return null;
+            case TRUE_VALUE: return true;
+            case FALSE_VALUE: return false;
+            case NUMBER_VALUE: return buffer.getDouble();
+            case STRING_VALUE: return readString();
+            case OBJECT_VALUE: return objects[buffer.getInt()];
+            case UNINITIALIZED_VALUE: return Environment.UNINITIALIZED;
+            case NATIVE_VALUE: {
+                String name = readString();
+                if (!interpreter.natives.contains(name)) throw new FormatError("Unknown native '" + name + "'.");
+                return interpreter.natives.getAt(0, name);
+            }
+            default:
+                throw new FormatError("Unknown value tag " + tag + ".");
+        }
+    }
+
+    private Environment environment(int reference) {
+        if (reference == NO_ENVIRONMENT) return null;
+        if (reference == NATIVES) return interpreter.natives;
+        return (Environment)objects[reference];
+    }
+
+    private String readString() {
+        byte[] bytes = new byte[buffer.getInt()];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
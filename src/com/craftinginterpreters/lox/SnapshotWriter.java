@@ -0,0 +1,289 @@
+package com.craftinginterpreters.lox;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+// Writes everything reachable from an interpreter's globals (environments,
+// functions, classes, instances, arrays, maps and modules) into an image that
+// SnapshotReader restores without re-running the code that built it.
+//
+// Objects are numbered so that whatever one needs at construction (enclosing
+// scope, closure, superclass, methods, class) comes first. The image lists
+// one creation record per object in that order, then the variables of every
+// environment, the fields of every instance and the contents of every array
+// and map, which may point anywhere.
+// Function declarations are stored once each through AstWriter.
+class SnapshotWriter {
+    static final int MAGIC = 0x4c4f5853; // "LOXS"
+    static final int FORMAT_VERSION = 3;
+
+    // Object kinds.
+    static final byte ENVIRONMENT = 1;
+    static final byte GLOBALS = 2;
+    static final byte FUNCTION = 3;
+    static final byte CLASS = 4;
+    static final byte INSTANCE = 5;
+    static final byte MODULE = 6;
+    static final byte ARRAY = 7;
+    static final byte MAP = 8;
+
+    // Value tags.
+    static final byte NIL_VALUE = 0;
+    static final byte TRUE_VALUE = 1;
+    static final byte FALSE_VALUE = 2;
+    static final byte NUMBER_VALUE = 3;
+    static final byte STRING_VALUE = 4;
+    static final byte OBJECT_VALUE = 5;
+    static final byte NATIVE_VALUE = 6;
+    static final byte UNINITIALIZED_VALUE = 7;
+
+    // Environment references that are not in the object table.
+    static final int NO_ENVIRONMENT = -1;
+    static final int NATIVES = -2;
+
+    private final Interpreter interpreter;
+    private final Map<Object, Integer> ids = new IdentityHashMap<>();
+    private final List<Object> objects = new ArrayList<>();
+    private final Map<Stmt.Function, Integer> declarationIds = new IdentityHashMap<>();
+    private final List<Stmt> declarations = new ArrayList<>();
+    private final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    private final DataOutputStream out = new DataOutputStream(bytes);
+
+    SnapshotWriter(Interpreter interpreter) {
+        this.interpreter = interpreter;
+    }
+
+    byte[] write() throws IOException {
+        id(interpreter.globals);
+        // variables and fields can reach further objects, so the list grows as it is walked
+        for (int i = 0; i < objects.size(); ++i) {
+            Object object = objects.get(i);
+            if (object instanceof LoxArray) {
+                LoxArray array = (LoxArray)object;
+                for (int j = 0; j < array.size(); ++j) {
+                    reference(array.get(j));
+                }
+            } else if (object instanceof LoxMap) {
+                LoxMap map = (LoxMap)object;
+                LoxArray keys = map.keys();
+                for (int j = 0; j < keys.size(); ++j) {
+                    reference(keys.get(j));
+                    reference(map.get(keys.get(j)));
+                }
+            }
+            for (Object value : variables(object).values()) {
+                reference(value);
+            }
+        }
+
+        out.writeInt(MAGIC);
+        out.writeInt(FORMAT_VERSION);
+        out.write(fingerprint());
+
+        byte[] code = new AstWriter().write(declarations);
+        out.writeInt(code.length);
+        out.write(code);
+
+        out.writeInt(objects.size());
+        for (Object object : objects) {
+            writeCreation(object);
+        }
+        for (Object object : objects) {
+            if (object instanceof LoxArray) {
+                LoxArray array = (LoxArray)object;
+                out.writeInt(array.size());
+                for (int i = 0; i < array.size(); ++i) {
+                    writeValue(array.get(i));
+                }
+                continue;
+            }
+            if (object instanceof LoxMap) {
+                LoxMap map = (LoxMap)object;
+                LoxArray keys = map.keys();
+                out.writeInt(keys.size());
+                for (int i = 0; i < keys.size(); ++i) {
+                    writeValue(keys.get(i));
+                    writeValue(map.get(keys.get(i)));
+                }
+                continue;
+            }
+            if (!(object instanceof Environment || object instanceof LoxInstance)) continue;
+
+            Map<String, Object> variables = variables(object);
+            out.writeInt(variables.size());
+            for (Map.Entry<String, Object> entry : variables.entrySet()) {
+                writeString(entry.getKey());
+                writeValue(entry.getValue());
+            }
+        }
+
+        out.flush();
+        return bytes.toByteArray();
+    }
+
+    // Identifies this build of the interpreter: a snapshot is only valid for
+    // the exact classes that wrote it.
+    static byte[] fingerprint() {
+        Class<?>[] classes = {
+            Interpreter.class, Environment.class, LoxFunction.class, LoxClass.class,
+            LoxInstance.class, LoxModule.class, LoxArray.class, LoxMap.class, Expr.class, Stmt.class, TokenType.class,
+            AstWriter.class, AstReader.class, SnapshotWriter.class, SnapshotReader.class,
+        };
+
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            for (Class<?> type : classes) {
+                digest.update(type.getName().getBytes(StandardCharsets.UTF_8));
+                try (InputStream in = type.getResourceAsStream(type.getSimpleName() + ".class")) {
+                    if (in != null) digest.update(in.readAllBytes());
+                }
+            }
+            return digest.digest();
+        } catch (IOException | NoSuchAlgorithmException error) {
+            throw new IllegalStateException(error);
+        }
+    }
+
+    private void reference(Object value) throws IOException {
+        if (value instanceof LoxFunction || value instanceof LoxClass || value instanceof LoxInstance
+                || value instanceof LoxModule || value instanceof LoxArray || value instanceof LoxMap) {
+            id(value);
+        } else if (value instanceof LoxCallable) {
+            nativeName(value);
+        }
+    }
+
+    private int id(Object object) throws IOException {
+        Integer id = ids.get(object);
+        if (id != null) return id;
+
+        if (object instanceof Environment) {
+            Environment environment = (Environment)object;
+            if (environment.enclosing != null && environment.enclosing != interpreter.natives) {
+                id(environment.enclosing);
+            }
+        } else if (object instanceof LoxFunction) {
+            LoxFunction function = (LoxFunction)object;
+            environment(function.closure);
+            environment(function.module);
+            if (!declarationIds.containsKey(function.declaration)) {
+                declarationIds.put(function.declaration, declarations.size());
+                declarations.add(function.declaration);
+            }
+        } else if (object instanceof LoxClass) {
+            LoxClass klass = (LoxClass)object;
+            if (klass.superclass != null) id(klass.superclass);
+            for (LoxFunction method : klass.methods.values()) id(method);
+            for (LoxFunction method : klass.staticMethods.values()) id(method);
+        } else if (object instanceof LoxInstance) {
+            id(((LoxInstance)object).klass);
+        } else if (object instanceof LoxModule) {
+            environment(((LoxModule)object).scope);
+        }
+
+        id = objects.size();
+        ids.put(object, id);
+        objects.add(object);
+        return id;
+    }
+
+    private int environment(Environment environment) throws IOException {
+        if (environment == null) return NO_ENVIRONMENT;
+        if (environment == interpreter.natives) return NATIVES;
+        return id(environment);
+    }
+
+    private void writeCreation(Object object) throws IOException {
+        if (object == interpreter.globals) {
+            out.writeByte(GLOBALS);
+        } else if (object instanceof Environment) {
+            out.writeByte(ENVIRONMENT);
+            out.writeInt(environment(((Environment)object).enclosing));
+        } else if (object instanceof LoxFunction) {
+            LoxFunction function = (LoxFunction)object;
+            out.writeByte(FUNCTION);
+            out.writeInt(declarationIds.get(function.declaration));
+            out.writeInt(environment(function.closure));
+            out.writeInt(environment(function.module));
+            out.writeByte(function.isInitializer ? 1 : 0);
+        } else if (object instanceof LoxClass) {
+            LoxClass klass = (LoxClass)object;
+            out.writeByte(CLASS);
+            writeString(klass.name);
+            out.writeInt(klass.superclass == null ? -1 : ids.get(klass.superclass));
+            writeMethods(klass.methods);
+            writeMethods(klass.staticMethods);
+        } else if (object instanceof LoxInstance) {
+            out.writeByte(INSTANCE);
+            out.writeInt(ids.get(((LoxInstance)object).klass));
+        } else if (object instanceof LoxArray) {
+            out.writeByte(ARRAY);
+        } else if (object instanceof LoxMap) {
+            out.writeByte(MAP);
+        } else {
+            LoxModule module = (LoxModule)object;
+            out.writeByte(MODULE);
+            writeString(module.name);
+            out.writeInt(environment(module.scope));
+        }
+    }
+
+    private void writeMethods(Map<String, LoxFunction> methods) throws IOException {
+        out.writeInt(methods.size());
+        for (Map.Entry<String, LoxFunction> entry : methods.entrySet()) {
+            writeString(entry.getKey());
+            out.writeInt(ids.get(entry.getValue()));
+        }
+    }
+
+    private void writeValue(Object value) throws IOException {
+        value = LoxRope.flatten(value);
+        if (value == null || value == Environment.NIL) {
+            out.writeByte(NIL_VALUE);
+        } else if (value == Environment.UNINITIALIZED) {
+            out.writeByte(UNINITIALIZED_VALUE);
+        } else if (value instanceof Boolean) {
+            out.writeByte((Boolean)value ? TRUE_VALUE : FALSE_VALUE);
+        } else if (value instanceof Double) {
+            out.writeByte(NUMBER_VALUE);
+            out.writeDouble((Double)value);
+        } else if (value instanceof String) {
+            out.writeByte(STRING_VALUE);
+            writeString((String)value);
+        } else if (ids.containsKey(value)) {
+            out.writeByte(OBJECT_VALUE);
+            out.writeInt(ids.get(value));
+        } else {
+            out.writeByte(NATIVE_VALUE);
+            writeString(nativeName(value));
+        }
+    }
+
+    private String nativeName(Object value) throws IOException {
+        for (Map.Entry<String, Object> entry : interpreter.natives.values.entrySet()) {
+            if (entry.getValue() == value) return entry.getKey();
+        }
+        throw new IOException("Cannot snapshot value '" + interpreter.stringify(value) + "'.");
+    }
+
+    private static Map<String, Object> variables(Object object) {
+        if (object instanceof Environment) return ((Environment)object).values;
+        if (object instanceof LoxInstance) return ((LoxInstance)object).fields;
+        return Map.of();
+    }
+
+    private void writeString(String string) throws IOException {
+        byte[] utf8 = string.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(utf8.length);
+        out.write(utf8);
+    }
+}
@@ -11,8 +11,15 @@ abstract class Stmt {
         R visitPrintStmt(Print stmt);
         R visitVarStmt(Var stmt);
         R visitWhileStmt(While stmt);
+        R visitForInStmt(ForIn stmt);
         R visitFunctionStmt(Function stmt);
         R visitReturnStmt(Return stmt);
+        R visitYieldStmt(Yield stmt);
+        R visitThrowStmt(Throw stmt);
+        R visitTryStmt(Try stmt);
+        R visitMatchStmt(Match stmt);
+        R visitCaseStmt(Case stmt);
+        R visitImportStmt(Import stmt);
     }
     static class Block extends Stmt {
         Block(List<Stmt> statements) {
@@ -103,13 +110,29 @@ abstract class Stmt {
         final Expr condition;
         final Stmt body;
     }
+    static class ForIn extends Stmt {
+        ForIn(Token name, Expr iterable, Stmt body) {
+            this.name = name;
+            this.iterable = iterable;
+            this.body = body;
+        }
+
+        <R> R accept(Visitor<R> visitor) {
+            return visitor.visitForInStmt(this);
+        }
+
+        final Token name;
+        final Expr iterable;
+        final Stmt body;
+    }
     static class Function extends Stmt {
-        Function(Token name, List<Token> params, List<Stmt> body, boolean isStatic, boolean isGetter) {
+        Function(Token name, List<Token> params, List<Stmt> body, boolean isStatic, boolean isGetter, boolean isGenerator) {
             this.name = name;
             this.params = params;
             this.body = body;
             this.isStatic = isStatic;
             this.isGetter = isGetter;
+            this.isGenerator = isGenerator;
         }
 
         <R> R accept(Visitor<R> visitor) {
@@ -121,6 +144,8 @@ abstract class Stmt {
         final List<Stmt> body;
         final boolean isStatic;
         final boolean isGetter;
+        final boolean isGenerator;
+        java.util.Set<Stmt> yielding = null;
     }
     static class Return extends Stmt {
         Return(Token keyword, Expr value) {
@@ -135,6 +160,97 @@ abstract class Stmt {
         final Token keyword;
         final Expr value;
     }
+    static class Yield extends Stmt {
+        Yield(Token keyword, Expr value) {
+            this.keyword = keyword;
+            this.value = value;
+        }
+
+        <R> R accept(Visitor<R> visitor) {
+            return visitor.visitYieldStmt(this);
+        }
+
+        final Token keyword;
+        final Expr value;
+    }
+    static class Throw extends Stmt {
+        Throw(Token keyword, Expr value) {
+            this.keyword = keyword;
+            this.value = value;
+        }
+
+        <R> R accept(Visitor<R> visitor) {
+            return visitor.visitThrowStmt(this);
+        }
+
+        final Token keyword;
+        final Expr value;
+    }
+    static class Try extends Stmt {
+        Try(Token keyword, List<Stmt> body, Token name, List<Stmt> handler) {
+            this.keyword = keyword;
+            this.body = body;
+            this.name = name;
+            this.handler = handler;
+        }
+
+        <R> R accept(Visitor<R> visitor) {
+            return visitor.visitTryStmt(this);
+        }
+
+        final Token keyword;
+        final List<Stmt> body;
+        final Token name;
+        final List<Stmt> handler;
+    }
+    static class Match extends Stmt {
+        Match(Token keyword, Expr subject, List<Stmt.Case> cases, Stmt otherwise) {
+            this.keyword = keyword;
+            this.subject = subject;
+            this.cases = cases;
+            this.otherwise = otherwise;
+        }
+
+        <R> R accept(Visitor<R> visitor) {
+            return visitor.visitMatchStmt(this);
+        }
+
+        final Token keyword;
+        final Expr subject;
+        final List<Stmt.Case> cases;
+        final Stmt otherwise;
+        MatchTable table = null;
+    }
+    static class Case extends Stmt {
+        Case(Token keyword, List<Expr> patterns, Stmt body) {
+            this.keyword = keyword;
+            this.patterns = patterns;
+            this.body = body;
+        }
+
+        <R> R accept(Visitor<R> visitor) {
+            return visitor.visitCaseStmt(this);
+        }
+
+        final Token keyword;
+        final List<Expr> patterns;
+        final Stmt body;
+    }
+    static class Import extends Stmt {
+        Import(Token keyword, Token path, Token name) {
+            this.keyword = keyword;
+            this.path = path;
+            this.name = name;
+        }
+
+        <R> R accept(Visitor<R> visitor) {
+            return visitor.visitImportStmt(this);
+        }
+
+        final Token keyword;
+        final Token path;
+        final Token name;
+    }
 
     abstract <R> R accept(Visitor<R> visitor);
 }
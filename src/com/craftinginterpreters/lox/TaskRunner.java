@@ -0,0 +1,83 @@
+package com.craftinginterpreters.lox;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Runs the calls started by 'spawn' for one engine. Each task gets its own
+// Interpreter over the engine's globals, modules and output. Tasks run on
+// virtual threads when the JDK has them; otherwise on a ForkJoinPool, where
+// await and channel operations block through managedBlock so the pool can
+// add threads instead of stalling.
+class TaskRunner {
+    private static class Executor {
+        static final ExecutorService INSTANCE = create();
+
+        private static ExecutorService create() {
+            try {
+                return (ExecutorService)Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+            } catch (ReflectiveOperationException error) {
+                return new ForkJoinPool(Runtime.getRuntime().availableProcessors(),
+                    ForkJoinPool.defaultForkJoinWorkerThreadFactory, null, true);
+            }
+        }
+    }
+
+    private final AtomicInteger pending = new AtomicInteger();
+    private final Queue<LoxFuture> failed = new ConcurrentLinkedQueue<>();
+
+    LoxFuture spawn(Interpreter task, LoxCallable function, List<Object> arguments, Token keyword) {
+        LoxFuture future = new LoxFuture();
+        pending.incrementAndGet();
+        Executor.INSTANCE.execute(() -> {
+            try {
+                future.complete(task.call(function, arguments, keyword));
+            } catch (RuntimeError error) {
+                failed.add(future);
+                future.fail(error);
+            } catch (StackOverflowError error) {
+                failed.add(future);
+                future.fail(new RuntimeError(keyword, "Stack overflow in spawned task."));
+            } finally {
+                if (pending.decrementAndGet() == 0) {
+                    synchronized (this) {
+                        notifyAll();
+                    }
+                }
+            }
+        });
+        return future;
+    }
+
+    // Waits until no task is running, counting ones spawned meanwhile, and
+    // returns the errors of failed tasks that nobody awaited.
+    List<RuntimeError> awaitAll() {
+        synchronized (this) {
+            while (pending.get() > 0) {
+                try {
+                    wait();
+                } catch (InterruptedException error) {
+                    Thread.currentThread().interrupt();
+                    break;
+                }
+            }
+        }
+
+        List<RuntimeError> errors = new ArrayList<>();
+        for (LoxFuture future; (future = failed.poll()) != null; ) {
+            if (!future.observed) {
+                try {
+                    future.await();
+                } catch (RuntimeError error) {
+                    errors.add(error);
+                }
+            }
+        }
+        return errors;
+    }
+}
@@ -13,6 +13,14 @@ class Token {
         this.line = line;
     }
 
+    // Rebuilds a token from a compiled form that stores only the lexeme.
+    static Token restore(TokenType type, String lexeme, int line) {
+        Object literal = null;
+        if (type == TokenType.STRING) literal = lexeme.substring(1, lexeme.length() - 1);
+        if (type == TokenType.NUMBER) literal = Numbers.parse(lexeme, 0, lexeme.length());
+        return new Token(type, lexeme, literal, line);
+    }
+
     public String toString() {
         return type + " " + lexeme + " " + literal;
     }
@@ -2,8 +2,8 @@ package com.craftinginterpreters.lox;
 
 enum TokenType {
     // single-character tokens
-    LEFT_PAREN, RIGHT_PAREN, LEFT_BRACE, RIGHT_BRACE,
-    COMMA, DOT, MINUS, PLUS, SEMICOLON, SLASH, STAR,
+    LEFT_PAREN, RIGHT_PAREN, LEFT_BRACE, RIGHT_BRACE, LEFT_BRACKET, RIGHT_BRACKET,
+    COLON, COMMA, DOT, MINUS, PLUS, SEMICOLON, SLASH, STAR,
 
     // one or two character tokens
     BANG, BANG_EQUAL,
@@ -15,8 +15,8 @@ enum TokenType {
     IDENTIFIER, STRING, NUMBER,
 
     // keywords
-    AND, BREAK, CLASS, ELSE, FALSE, FUN, FOR, IF, NIL, OR,
-    PRINT, RETURN, SUPER, THIS, TRUE, VAR, WHILE,
+    AND, AWAIT, BREAK, CASE, CATCH, CLASS, ELSE, FALSE, FUN, FOR, IF, IMPORT, MATCH, NIL, OR,
+    PRINT, RETURN, SPAWN, SUPER, THIS, THROW, TRUE, TRY, VAR, WHILE, YIELD,
 
     EOF
 }
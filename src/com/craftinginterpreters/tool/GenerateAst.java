@@ -2,8 +2,11 @@ package com.craftinginterpreters.tool;
 
 import java.io.IOException;
 import java.io.PrintWriter;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 public class GenerateAst {
     public static void main(String args[]) throws IOException {
@@ -13,7 +16,7 @@ public class GenerateAst {
         }
 
         String outputDir = args[0];
-        defineAst(outputDir, "Expr", Arrays.asList(
+        List<String> exprTypes = Arrays.asList(
             "Assign     : Token name, Expr value",
             "Binary     : Expr left, Token operator, Expr right",
             "Call       : Expr callee, Token paren, List<Expr> arguments",
@@ -26,10 +29,15 @@ public class GenerateAst {
             "Logical    : Expr left, Token operator, Expr right",
             "Unary      : Token operator, Expr right",
             "Variable   : Token name",
-            "Break      : Token token"
-        ));
+            "Break      : Token token",
+            "Spawn      : Token keyword, Expr.Call call",
+            "Await      : Token keyword, Expr value",
+            "ArrayLiteral : Token bracket, List<Expr> elements",
+            "Index      : Expr object, Token bracket, Expr index",
+            "SetIndex   : Expr object, Token bracket, Expr index, Expr value"
+        );
 
-        defineAst(outputDir, "Stmt", Arrays.asList(
+        List<String> stmtTypes = Arrays.asList(
             "Block         : List<Stmt> statements",
                 "Class          : Token name, Expr.Variable superclass, List<Stmt.Function> methods",
                 "Expression     : Expr expression",
@@ -37,12 +45,32 @@ public class GenerateAst {
                 "Print          : Expr expression",
                 "Var            : Token name, Expr initializer",
                 "While          : Expr condition, Stmt body",
-                "Function       : Token name, List<Token> params, List<Stmt> body, boolean isStatic, boolean isGetter",
-                "Return         : Token keyword, Expr value"
-        ));
+                "ForIn          : Token name, Expr iterable, Stmt body",
+                "Function       : Token name, List<Token> params, List<Stmt> body, boolean isStatic, boolean isGetter, boolean isGenerator",
+                "Return         : Token keyword, Expr value",
+                "Yield          : Token keyword, Expr value",
+                "Throw          : Token keyword, Expr value",
+                "Try            : Token keyword, List<Stmt> body, Token name, List<Stmt> handler",
+                "Match          : Token keyword, Expr subject, List<Stmt.Case> cases, Stmt otherwise",
+                "Case           : Token keyword, List<Expr> patterns, Stmt body",
+                "Import         : Token keyword, Token path, Token name"
+        );
+
+        // Nodes whose scope distance the Resolver stores on the node itself.
+        List<String> resolved = Arrays.asList("Assign", "This", "Super", "Variable");
+
+        // Nodes the Resolver compiles a dispatch table for.
+        // Other things the Resolver works out once and keeps on the node.
+        Map<String, String> derived = new HashMap<>();
+        derived.put("Match", "MatchTable table = null;");
+        derived.put("Function", "java.util.Set<Stmt> yielding = null;");
+
+        defineAst(outputDir, "Expr", exprTypes, resolved, new HashMap<>());
+        defineAst(outputDir, "Stmt", stmtTypes, new ArrayList<>(), derived);
+        defineFlatAst(outputDir, exprTypes, stmtTypes, resolved);
     }
 
-    private static void defineAst(String outputDir, String baseName, List<String> types) throws IOException {
+    private static void defineAst(String outputDir, String baseName, List<String> types, List<String> resolved, Map<String, String> derived) throws IOException {
         String path = outputDir + "/" + baseName + ".java";
         PrintWriter writer = new PrintWriter(path, "UTF-8");
 
@@ -58,7 +86,7 @@ public class GenerateAst {
         for (String type : types) {
             String className = type.split(":")[0].trim();
             String fields = type.split(":")[1].trim();
-            defineType(writer, baseName, className, fields);
+            defineType(writer, baseName, className, fields, resolved.contains(className), derived.get(className));
         }
 
         // The base accept() method.
@@ -80,7 +108,7 @@ public class GenerateAst {
         writer.println("    }");
     }
 
-    private static void defineType(PrintWriter writer, String baseName, String className, String fieldList) {
+    private static void defineType(PrintWriter writer, String baseName, String className, String fieldList, boolean resolved, String derived) {
         writer.println("    static class " + className + " extends " + baseName + " {");
 
         // Constructor.
@@ -107,6 +135,180 @@ public class GenerateAst {
             writer.println("        final " + field + ";");
         }
 
+        // Written once by the Resolver before the tree is shared; -1 for globals.
+        if (resolved) {
+            writer.println("        int depth = -1;");
+        }
+
+        // Set by the Resolver; trees read back from a cache or a flat AST
+        // are not resolved again, so they fill it in on first use instead.
+        if (derived != null) {
+            writer.println("        " + derived);
+        }
+
         writer.println("    }");
     }
-}
+
+    // The struct-of-arrays encoding: one kind constant per node type, an
+    // encoder from the tree classes and a decoder back to them.
+    private static void defineFlatAst(String outputDir, List<String> exprTypes, List<String> stmtTypes, List<String> resolved) throws IOException {
+        String path = outputDir + "/FlatAst.java";
+        PrintWriter writer = new PrintWriter(path, "UTF-8");
+
+        List<String[]> types = new ArrayList<>();
+        for (String type : exprTypes) types.add(new String[] { "Expr", type });
+        for (String type : stmtTypes) types.add(new String[] { "Stmt", type });
+
+        writer.println("package com.craftinginterpreters.lox;");
+        writer.println("");
+        writer.println("import java.util.List;");
+        writer.println("");
+        writer.println("class FlatAst extends FlatStore {");
+
+        int kind = 0;
+        for (String[] type : types) {
+            writer.println("    static final int " + kindName(type[0], type[1]) + " = " + kind++ + ";");
+        }
+
+        // Entry point.
+        writer.println("");
+        writer.println("    static FlatAst encode(List<Stmt> statements) {");
+        writer.println("        FlatAst ast = new FlatAst();");
+        writer.println("        Encoder encoder = ast.new Encoder();");
+        writer.println("        for (Stmt statement : statements) {");
+        writer.println("            ast.addRoot(encoder.encode(statement));");
+        writer.println("        }");
+        writer.println("        ast.trim();");
+        writer.println("        return ast;");
+        writer.println("    }");
+
+        defineFlatEncoder(writer, types, resolved);
+        defineFlatDecoder(writer, types, resolved);
+
+        writer.println("}");
+        writer.close();
+    }
+
+    private static void defineFlatEncoder(PrintWriter writer, List<String[]> types, List<String> resolved) {
+        writer.println("");
+        writer.println("    private class Encoder implements Expr.Visitor<Integer>, Stmt.Visitor<Integer> {");
+        writer.println("        int encode(Expr expr) {");
+        writer.println("            return expr == null ? -1 : expr.accept(this);");
+        writer.println("        }");
+        writer.println("");
+        writer.println("        int encode(Stmt stmt) {");
+        writer.println("            return stmt == null ? -1 : stmt.accept(this);");
+        writer.println("        }");
+        writer.println("");
+        writer.println("        private int[] exprs(List<? extends Expr> exprs) {");
+        writer.println("            int[] nodes = new int[exprs.size()];");
+        writer.println("            for (int i = 0; i < nodes.length; ++i) nodes[i] = encode(exprs.get(i));");
+        writer.println("            return nodes;");
+        writer.println("        }");
+        writer.println("");
+        writer.println("        private int[] stmts(List<? extends Stmt> stmts) {");
+        writer.println("            int[] nodes = new int[stmts.size()];");
+        writer.println("            for (int i = 0; i < nodes.length; ++i) nodes[i] = encode(stmts.get(i));");
+        writer.println("            return nodes;");
+        writer.println("        }");
+
+        for (String[] type : types) {
+            String baseName = type[0];
+            String className = type[1].split(":")[0].trim();
+            String[] fields = type[1].split(":")[1].trim().split(", ");
+            String param = baseName.toLowerCase();
+
+            writer.println("");
+            writer.println("        @Override");
+            writer.println("        public Integer visit" + className + baseName + "(" + baseName + "." + className + " " + param + ") {");
+            for (String field : fields) {
+                String fieldType = field.split(" ")[0];
+                String name = field.split(" ")[1];
+                String value = param + "." + name;
+                if (fieldType.equals("Token")) {
+                    writer.println("            int " + name + " = token(" + value + ");");
+                } else if (fieldType.equals("boolean")) {
+                    writer.println("            int " + name + " = " + value + " ? 1 : 0;");
+                } else if (fieldType.equals("Object")) {
+                    writer.println("            int " + name + " = constant(" + value + ");");
+                } else if (fieldType.equals("List<Token>")) {
+                    writer.println("            int[] " + name + " = tokens(" + value + ");");
+                } else if (fieldType.startsWith("List<Expr")) {
+                    writer.println("            int[] " + name + " = exprs(" + value + ");");
+                } else if (fieldType.startsWith("List<Stmt")) {
+                    writer.println("            int[] " + name + " = stmts(" + value + ");");
+                } else {
+                    writer.println("            int " + name + " = encode(" + value + ");");
+                }
+            }
+            String depth = resolved.contains(className) ? param + ".depth" : "-1";
+            writer.println("            int node = beginNode(" + kindName(baseName, type[1]) + ", " + depth + ");");
+            for (String field : fields) {
+                String fieldType = field.split(" ")[0];
+                String name = field.split(" ")[1];
+                writer.println("            " + (fieldType.startsWith("List<") ? "slots" : "slot") + "(" + name + ");");
+            }
+            writer.println("            return node;");
+            writer.println("        }");
+        }
+
+        writer.println("    }");
+    }
+
+    private static void defineFlatDecoder(PrintWriter writer, List<String[]> types, List<String> resolved) {
+        writer.println("");
+        writer.println("    @Override");
+        writer.println("    Object decode(int node) {");
+        writer.println("        if (node < 0) return null;");
+        writer.println("");
+        writer.println("        int at = slotStart[node];");
+        writer.println("        switch (kinds[node]) {");
+
+        for (String[] type : types) {
+            String baseName = type[0];
+            String className = type[1].split(":")[0].trim();
+            String[] fields = type[1].split(":")[1].trim().split(", ");
+
+            writer.println("            case " + kindName(baseName, type[1]) + ": {");
+            List<String> names = new ArrayList<>();
+            for (String field : fields) {
+                String fieldType = field.split(" ")[0];
+                String name = field.split(" ")[1];
+                names.add(name);
+                if (fieldType.equals("Token")) {
+                    writer.println("                Token " + name + " = tokenAt(slots[at++]);");
+                } else if (fieldType.equals("boolean")) {
+                    writer.println("                boolean " + name + " = slots[at++] != 0;");
+                } else if (fieldType.equals("Object")) {
+                    writer.println("                Object " + name + " = constants[slots[at++]];");
+                } else if (fieldType.equals("List<Token>")) {
+                    writer.println("                List<Token> " + name + " = tokenList(at);");
+                    writer.println("                at += slots[at] + 1;");
+                } else if (fieldType.startsWith("List<")) {
+                    writer.println("                " + fieldType + " " + name + " = nodeList(at);");
+                    writer.println("                at += slots[at] + 1;");
+                } else {
+                    writer.println("                " + fieldType + " " + name + " = (" + fieldType + ")decode(slots[at++]);");
+                }
+            }
+            String created = "new " + baseName + "." + className + "(" + String.join(", ", names) + ")";
+            if (resolved.contains(className)) {
+                writer.println("                " + baseName + "." + className + " " + baseName.toLowerCase() + " = " + created + ";");
+                writer.println("                " + baseName.toLowerCase() + ".depth = depths[node];");
+                writer.println("                return " + baseName.toLowerCase() + ";");
+            } else {
+                writer.println("                return " + created + ";");
+            }
+            writer.println("            }");
+        }
+
+        writer.println("            default:");
+        writer.println("                throw new IllegalStateException(\"Unknown flat AST node kind \" + kinds[node] + \".\");");
+        writer.println("        }");
+        writer.println("    }");
+    }
+
+    private static String kindName(String baseName, String type) {
+        return type.split(":")[0].trim().toUpperCase() + "_" + baseName.toUpperCase();
+    }
+}
\ No newline at end of file